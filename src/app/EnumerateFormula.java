@@ -0,0 +1,193 @@
+package app;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+import deterministic.DeterministicEnumerator;
+import deterministic.EnumeratorResultHandler;
+import deterministic.IsomerCount;
+import signature.Signature;
+import utilities.Shard;
+
+/**
+ * Enumerate the structures for a formula, and print the canonical signature
+ * of each one. A large formula can be split into shards, run separately :
+ * <pre>
+ * java app.EnumerateFormula C8H18 --shard 0/4 > shard0.txt
+ * ...
+ * java app.EnumerateFormula C8H18 --shard 3/4 > shard3.txt
+ * java app.EnumerateFormula --merge shard0.txt shard1.txt ... > C8H18.txt
+ * </pre>
+ * The output is sorted, so the merged output is the same as the output of
+ * an unsharded run. With <code>--count</code>, only the number of structures
+ * is printed, followed by the number for each degree sequence and for each
+ * set of first-level orbits. 
+ * <p>
+ * A structure can be found by more than one shard, so the counts of separate
+ * shards cannot be added up, and <code>--count</code> is not allowed with
+ * <code>--shard</code>. Instead, the signatures of the shards are merged and
+ * then counted :
+ * <pre>
+ * java app.EnumerateFormula --merge --count shard0.txt shard1.txt ...
+ * </pre>
+ *
+ * @author maclean
+ *
+ */
+public class EnumerateFormula {
+
+    /**
+     * The shard depth used if none is given
+     */
+    public static final int DEFAULT_SHARD_DEPTH = 4;
+
+    /**
+     * Enumerate one shard (or all) of a formula.
+     *
+     * @param formula the formula string
+     * @param shard the shard, or null
+     * @param out the stream to print the signatures to
+     */
+    public static void enumerate(String formula, Shard shard, PrintStream out) {
+        final Set<String> signatures = new TreeSet<String>();
+        DeterministicEnumerator enumerator = new DeterministicEnumerator(formula);
+        enumerator.setShard(shard);
+        enumerator.setHandler(new EnumeratorResultHandler() {
+            public void handle(IAtomContainer result) {
+                signatures.add(
+                        new Signature(result).toCanonicalSignatureString());
+            }
+        });
+        enumerator.generateToHandler();
+        for (String signature : signatures) {
+            out.println(signature);
+        }
+        out.flush();
+    }
+
+    /**
+     * Count all the structures for a formula.
+     *
+     * @param formula the formula string
+     * @param out the stream to print the counts to
+     */
+    public static void count(String formula, PrintStream out) {
+        DeterministicEnumerator enumerator = new DeterministicEnumerator(formula);
+        IsomerCount count = enumerator.count(true);
+        out.println(count.getTotal());
+        for (Map.Entry<String, Long> entry
+                : count.getCountsByDegreeSequence().entrySet()) {
+            out.println(entry.getKey() + "\t" + entry.getValue());
+        }
+        for (Map.Entry<String, Long> entry
+                : count.getCountsByFirstLevelOrbits().entrySet()) {
+            out.println(entry.getKey() + "\t" + entry.getValue());
+        }
+        out.flush();
+    }
+
+    /**
+     * Merge the output of several shards, removing the structures that were
+     * found by more than one.
+     *
+     * @param files the outputs of the shards
+     * @param countOnly if true, print only the number of merged signatures
+     * @param out the stream to print the merged signatures to
+     * @throws IOException if a file cannot be read
+     */
+    public static void merge(
+            List<String> files, boolean countOnly, PrintStream out)
+        throws IOException {
+        Set<String> signatures = new TreeSet<String>();
+        for (String file : files) {
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() > 0) {
+                        signatures.add(line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        if (countOnly) {
+            out.println(signatures.size());
+        } else {
+            for (String signature : signatures) {
+                out.println(signature);
+            }
+        }
+        out.flush();
+    }
+
+    public static void main(String[] args) {
+        String className = EnumerateFormula.class.getSimpleName();
+        if (args.length == 0) {
+            System.err.println(String.format(
+                    "Usage : java %s <formula> [--count] [--shard i/N] [--shard-depth d]"
+                    + "\n        java %s --merge [--count] <file> ...",
+                    className, className));
+            return;
+        }
+
+        try {
+            if (args[0].equals("--merge")) {
+                List<String> files = new ArrayList<String>();
+                boolean countMerged = false;
+                for (int i = 1; i < args.length; i++) {
+                    if (args[i].equals("--count")) {
+                        countMerged = true;
+                    } else {
+                        files.add(args[i]);
+                    }
+                }
+                merge(files, countMerged, System.out);
+                return;
+            }
+
+            String formula = args[0];
+            String shardSpec = null;
+            int shardDepth = DEFAULT_SHARD_DEPTH;
+            boolean countOnly = false;
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--count")) {
+                    countOnly = true;
+                } else if (args[i].equals("--shard") && i + 1 < args.length) {
+                    shardSpec = args[++i];
+                } else if (args[i].equals("--shard-depth")
+                        && i + 1 < args.length) {
+                    shardDepth = Integer.parseInt(args[++i]);
+                }
+            }
+            if (countOnly && shardSpec != null) {
+                System.err.println(
+                        "--count cannot be used with --shard, as the shards "
+                        + "overlap; merge the shards with --merge --count");
+                return;
+            }
+            if (countOnly) {
+                count(formula, System.out);
+            } else {
+                Shard shard = null;
+                if (shardSpec != null) {
+                    shard = Shard.parse(shardSpec, shardDepth);
+                }
+                enumerate(formula, shard, System.out);
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+}
@@ -0,0 +1,548 @@
+package deterministic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import signature.IAtomGraph;
+import signature.Util;
+import utilities.ConnectedComponents;
+
+/**
+ * The primitive graph that the enumerator works on. The element of each atom
+ * is stored as a code in a byte array, the bond orders in a packed upper
+ * triangular matrix, and each atom has a counter of its remaining valence.
+ * The set of atoms that still have valence left is kept up to date as bonds
+ * are made and unmade, so no saturation test has to look at the bonds, and
+ * so are the connected components, so neither do the connectivity tests,
+ * and the total valence left, for the cheap feasibility bounds.
+ * Copying one of these is just a few array copies, compared to cloning every
+ * atom and bond of an IAtomContainer.
+ *
+ * The bonds are also kept in the order that they were made, as the canonical
+ * checker and the signatures depend on that order.
+ *
+ * Each atom has a fixed valence state, which is the standard (lowest) one of
+ * its element unless a list of valences is given. An atom in a higher state 
+ * has its own type, like "N^5", so that the canonical checker and the 
+ * signatures never swap it with an atom of the same element in another 
+ * state. '^' sorts after ']' and ',', so these types still compare in the 
+ * same order as their strings in a signature.
+ *
+ * @author maclean
+ *
+ */
+public class AdjacencyMatrix implements IAtomGraph {
+
+    private int atomCount;
+
+    /**
+     * The element codes of the atoms, as used by {@link Util}
+     */
+    private byte[] elements;
+
+    /**
+     * The valence state of each atom
+     */
+    private int[] valences;
+
+    /**
+     * The symbol of each atom, with its valence if that is not the standard 
+     * one for the element
+     */
+    private String[] types;
+
+    /**
+     * The bond orders for each pair (i, j) with i < j, packed row by row
+     */
+    private byte[] orders;
+
+    /**
+     * The valence left on each atom, once its bonds are counted
+     */
+    private int[] remainingValence;
+
+    /**
+     * The sum of the remaining valences of all the atoms, apart from those
+     * with an unlimited valence
+     */
+    private int totalRemainingValence;
+
+    /**
+     * The number of atoms with an unlimited valence
+     */
+    private int unlimitedCount;
+
+    /**
+     * The atoms with remaining valence greater than zero
+     */
+    private BitSet unsaturated;
+
+    /**
+     * The connected components, with their counts of unsaturated atoms
+     */
+    private ConnectedComponents components;
+
+    /**
+     * The number of bonds at each atom
+     */
+    private int[] degrees;
+
+    /**
+     * The atom pairs of the bonds, in the order they were made
+     */
+    private int[] bondAtoms;
+
+    private int bondCount;
+
+    /**
+     * Make a graph with no bonds from a list of element symbols, with each 
+     * atom in the standard valence state of its element.
+     *
+     * @param symbols the element symbols of the atoms
+     */
+    public AdjacencyMatrix(String[] symbols) {
+        this(symbols, null);
+    }
+
+    /**
+     * Make a graph with no bonds from a list of element symbols, and the 
+     * valence state of each atom.
+     *
+     * @param symbols the element symbols of the atoms
+     * @param valences the valence of each atom, or null for the standard ones
+     */
+    public AdjacencyMatrix(String[] symbols, int[] valences) {
+        this.atomCount = symbols.length;
+        this.elements = new byte[atomCount];
+        this.orders = new byte[(atomCount * (atomCount - 1)) / 2];
+        this.remainingValence = new int[atomCount];
+        this.degrees = new int[atomCount];
+        this.bondAtoms = new int[2 * atomCount];
+        this.bondCount = 0;
+        this.valences = new int[atomCount];
+        this.types = new String[atomCount];
+        for (int i = 0; i < atomCount; i++) {
+            int code = Util.getElementCode(symbols[i]);
+            this.elements[i] = (byte) code;
+            int standard = Util.getValence(code);
+            if (valences == null || valences[i] == standard) {
+                this.valences[i] = standard;
+                this.types[i] = symbols[i];
+            } else {
+                this.valences[i] = valences[i];
+                this.types[i] = symbols[i] + "^" + valences[i];
+            }
+            this.remainingValence[i] = this.valences[i];
+            if (isUnlimited(i)) {
+                this.unlimitedCount++;
+            } else {
+                this.totalRemainingValence += this.remainingValence[i];
+            }
+        }
+        this.unsaturated = new BitSet(atomCount);
+        this.unsaturated.set(0, atomCount);
+        this.components = new ConnectedComponents(atomCount);
+    }
+
+    /**
+     * Copy constructor
+     *
+     * @param other the matrix to copy
+     */
+    public AdjacencyMatrix(AdjacencyMatrix other) {
+        this.atomCount = other.atomCount;
+        // the elements and valences never change, so they can be shared
+        this.elements = other.elements;
+        this.valences = other.valences;
+        this.types = other.types;
+        this.orders = other.orders.clone();
+        this.remainingValence = other.remainingValence.clone();
+        this.totalRemainingValence = other.totalRemainingValence;
+        this.unlimitedCount = other.unlimitedCount;
+        this.unsaturated = (BitSet) other.unsaturated.clone();
+        this.components = new ConnectedComponents(other.components);
+        this.degrees = other.degrees.clone();
+        this.bondAtoms = other.bondAtoms.clone();
+        this.bondCount = other.bondCount;
+    }
+
+    private int index(int i, int j) {
+        if (i > j) {
+            int tmp = i;
+            i = j;
+            j = tmp;
+        }
+        return (i * (2 * atomCount - i - 1)) / 2 + (j - i - 1);
+    }
+
+    public int getElement(int atomNumber) {
+        return this.elements[atomNumber];
+    }
+
+    public int getRemainingValence(int atomNumber) {
+        return this.remainingValence[atomNumber];
+    }
+
+    /**
+     * @return the sum of the remaining valences of all the atoms, apart from
+     * those with an unlimited valence
+     */
+    public int getTotalRemainingValence() {
+        return this.totalRemainingValence;
+    }
+
+    /**
+     * Check that the valences left can be paired up into bonds. Every bond
+     * uses up two valences, so with an odd total no structure can be made.
+     * Making or breaking a bond does not change this, so it only needs to be
+     * checked once, on the initial graph.
+     *
+     * @return false if the total valence left is odd, and no atom has an
+     * unlimited valence
+     */
+    public boolean hasEvenValence() {
+        return this.unlimitedCount > 0 || this.totalRemainingValence % 2 == 0;
+    }
+
+    private boolean isUnlimited(int atomNumber) {
+        return this.valences[atomNumber] == Util.UNLIMITED_VALENCE;
+    }
+
+    /**
+     * @param atomNumber an atom
+     * @return the valence state of the atom, or UNLIMITED_VALENCE
+     */
+    public int getValence(int atomNumber) {
+        return this.valences[atomNumber];
+    }
+
+    /**
+     * Make every way of putting the atoms into the valence states of their 
+     * elements, such as 3 or 5 for nitrogen. As atoms of the same element 
+     * can be swapped, only the assignments where the later atoms of each 
+     * element are in the same or higher states are made. The first one has 
+     * every atom in its standard state.
+     *
+     * @param symbols the element symbols of the atoms
+     * @return the valences for each assignment
+     */
+    public static List<int[]> getValenceStates(String[] symbols) {
+        int[] codes = new int[symbols.length];
+        for (int i = 0; i < symbols.length; i++) {
+            codes[i] = Util.getElementCode(symbols[i]);
+        }
+        List<int[]> states = new ArrayList<int[]>();
+        addValenceStates(codes, new int[codes.length], 0, states);
+        return states;
+    }
+
+    private static void addValenceStates(
+            int[] codes, int[] valences, int i, List<int[]> states) {
+        if (i == codes.length) {
+            states.add(valences.clone());
+            return;
+        }
+        int lowest = 0;
+        for (int j = i - 1; j >= 0; j--) {
+            if (codes[j] == codes[i]) {
+                lowest = valences[j];
+                break;
+            }
+        }
+        for (int valence : Util.getValences(codes[i])) {
+            if (valence < lowest) continue;
+            valences[i] = valence;
+            addValenceStates(codes, valences, i + 1, states);
+        }
+    }
+
+    public boolean isSaturated(int atomNumber) {
+        return !this.unsaturated.get(atomNumber);
+    }
+
+    /**
+     * @return true if every atom in the graph is saturated
+     */
+    public boolean isFullySaturated() {
+        return this.unsaturated.isEmpty();
+    }
+
+    /**
+     * @return the number of atoms with some valence left
+     */
+    public int getUnsaturatedCount() {
+        return this.unsaturated.cardinality();
+    }
+
+    /**
+     * Find the first unsaturated atom at or after an index, to loop over the
+     * unsaturated atoms without testing each atom in turn :
+     * <pre>
+     * for (int i = m.nextUnsaturated(0); i >= 0; i = m.nextUnsaturated(i + 1))
+     * </pre>
+     *
+     * @param fromIndex the index to start from
+     * @return the index of the next unsaturated atom, or -1 if there is none
+     */
+    public int nextUnsaturated(int fromIndex) {
+        return this.unsaturated.nextSetBit(fromIndex);
+    }
+
+    /**
+     * Change the remaining valence of an atom, keeping the unsaturated set
+     * in step with it.
+     *
+     * @param atomNumber the atom
+     * @param change the amount to add to its remaining valence
+     */
+    private void changeValence(int atomNumber, int change) {
+        int remaining = this.remainingValence[atomNumber] + change;
+        this.remainingValence[atomNumber] = remaining;
+        if (!isUnlimited(atomNumber)) {
+            this.totalRemainingValence += change;
+        }
+        this.unsaturated.set(atomNumber, remaining > 0);
+        this.components.setSaturated(atomNumber, remaining <= 0);
+    }
+
+    /**
+     * Raise the order of the bond between x and y by one, making a single
+     * bond if there is none. A triple bond is left as it is.
+     *
+     * @param x the first atom to be bonded
+     * @param y the second atom to be bonded
+     * @return false if the bond was already triple, and nothing changed
+     */
+    public boolean bond(int x, int y) {
+        int i = index(x, y);
+        if (orders[i] == 0) {
+            addBond(x, y, 1);
+            return true;
+        } else if (orders[i] < 3) {
+            orders[i]++;
+            changeValence(x, -1);
+            changeValence(y, -1);
+            return true;
+        } else {
+            return false;
+        }
+    }
+    
+    /**
+     * Undo a call to {@link #bond(int, int)} that returned true, lowering the
+     * order of the bond by one, and removing it if it was single.
+     *
+     * @param x the first atom of the bond
+     * @param y the second atom of the bond
+     */
+    public void unbond(int x, int y) {
+        int i = index(x, y);
+        if (orders[i] > 1) {
+            orders[i]--;
+            changeValence(x, 1);
+            changeValence(y, 1);
+        } else if (orders[i] == 1) {
+            removeBond(x, y);
+        }
+    }
+
+    /**
+     * Add a new bond of the given order between two unbonded atoms.
+     *
+     * @param x the first atom
+     * @param y the second atom
+     * @param order the bond order
+     */
+    public void addBond(int x, int y, int order) {
+        if (2 * bondCount == bondAtoms.length) {
+            bondAtoms = Arrays.copyOf(bondAtoms, 2 * bondAtoms.length + 2);
+        }
+        bondAtoms[2 * bondCount] = x;
+        bondAtoms[2 * bondCount + 1] = y;
+        bondCount++;
+        components.union(x, y);
+        orders[index(x, y)] = (byte) order;
+        degrees[x]++;
+        degrees[y]++;
+        changeValence(x, -order);
+        changeValence(y, -order);
+    }
+
+    /**
+     * Remove a bond completely. Bonds made later keep their relative order;
+     * when undoing a search this is always the last bond, so nothing moves.
+     *
+     * @param x the first atom of the bond
+     * @param y the second atom of the bond
+     */
+    private void removeBond(int x, int y) {
+        int b = bondCount - 1;
+        while (b >= 0 && !((bondAtoms[2 * b] == x && bondAtoms[2 * b + 1] == y)
+                        || (bondAtoms[2 * b] == y && bondAtoms[2 * b + 1] == x))) {
+            b--;
+        }
+        if (b < 0) return;
+        boolean isLast = (b == bondCount - 1);
+        int order = orders[index(x, y)];
+        System.arraycopy(bondAtoms, 2 * b + 2, 
+                bondAtoms, 2 * b, 2 * (bondCount - b - 1));
+        bondCount--;
+        orders[index(x, y)] = 0;
+        degrees[x]--;
+        degrees[y]--;
+        changeValence(x, order);
+        changeValence(y, order);
+        if (isLast) {
+            components.undo();
+        } else {
+            rebuildComponents();
+        }
+    }
+
+    /**
+     * Make the connected components again from the bonds, for when a bond
+     * other than the last one has been removed, and the unions can no longer
+     * be undone in order.
+     */
+    private void rebuildComponents() {
+        components = new ConnectedComponents(atomCount);
+        for (int b = 0; b < bondCount; b++) {
+            components.union(bondAtoms[2 * b], bondAtoms[2 * b + 1]);
+        }
+        for (int i = 0; i < atomCount; i++) {
+            components.setSaturated(i, remainingValence[i] <= 0);
+        }
+    }
+
+    /**
+     * Check that the graph is connected.
+     *
+     * @return true if there is a path from any atom to any other atom
+     */
+    public boolean isConnected() {
+        return this.components.isConnected();
+    }
+
+    /**
+     * Check for a saturated subgraph in the connected component that contains
+     * the atom x. A component that covers the whole graph is a solution, not
+     * a saturated subgraph.
+     *
+     * @param x an atom index
+     * @return true if the component of x is saturated but not the whole graph
+     */
+    public boolean isSaturatedSubgraph(int x) {
+        return this.components.isSaturatedSubgraph(x);
+    }
+
+    /**
+     * Check, by counting, that the graph could still be made into a single
+     * saturated structure by raising bond orders. This is much cheaper than
+     * the canonicity test, and catches many dead branches before it :
+     * <ul>
+     * <li>joining k components needs at least k - 1 more bonds, unless an
+     * atom with an unlimited valence could take them;</li>
+     * <li>each atom of the last bond must have enough partners left for its
+     * own remaining valence, allowing at most a triple bond to each.</li>
+     * </ul>
+     * Passing this does not mean that a solution exists, only that failing
+     * it means that none does. The parity of the valences is checked once,
+     * by {@link #hasEvenValence()}.
+     *
+     * @param x the atom being saturated
+     * @param y the atom it was bonded to
+     * @return false if no structure can be completed from this graph
+     */
+    public boolean isFeasible(int x, int y) {
+        if (unlimitedCount == 0 
+                && totalRemainingValence / 2 
+                    < components.getComponentCount() - 1) {
+            return false;
+        }
+        return hasEnoughPartners(x) && hasEnoughPartners(y);
+    }
+
+    /**
+     * @param x an atom
+     * @return true if the valence left on x could be taken up by other atoms
+     */
+    private boolean hasEnoughPartners(int x) {
+        int needed = remainingValence[x];
+        if (needed <= 0 || isUnlimited(x)) return true;
+        int available = 0;
+        for (int y = nextUnsaturated(0); y >= 0; y = nextUnsaturated(y + 1)) {
+            if (y == x) continue;
+            available += Math.min(
+                    remainingValence[y], 3 - orders[index(x, y)]);
+            if (available >= needed) return true;
+        }
+        return false;
+    }
+
+    public int getAtomCount() {
+        return this.atomCount;
+    }
+
+    public int getBondCount() {
+        return this.bondCount;
+    }
+
+    /**
+     * The type of an atom : its element symbol, followed by its valence if
+     * it is not in the standard state, like "S^6".
+     *
+     * @param atomNumber an atom
+     * @return the type of the atom
+     */
+    public String getSymbol(int atomNumber) {
+        return this.types[atomNumber];
+    }
+
+    /**
+     * @param atomNumber an atom
+     * @return the element symbol of the atom, without any valence
+     */
+    public String getElementSymbol(int atomNumber) {
+        return Util.getElementSymbol(elements[atomNumber]);
+    }
+
+    public int getBondAtom(int bondNumber, int position) {
+        return this.bondAtoms[2 * bondNumber + position];
+    }
+
+    public int getBondOrder(int bondNumber) {
+        return this.orders[index(
+                bondAtoms[2 * bondNumber], bondAtoms[2 * bondNumber + 1])];
+    }
+
+    public int getBondOrder(int atomA, int atomB) {
+        if (atomA == atomB) return 0;
+        return this.orders[index(atomA, atomB)];
+    }
+
+    public int getDegree(int atomNumber) {
+        return this.degrees[atomNumber];
+    }
+
+    public int[] getConnected(int atomNumber) {
+        int[] connected = new int[degrees[atomNumber]];
+        int n = 0;
+        for (int b = 0; b < bondCount; b++) {
+            int x = bondAtoms[2 * b];
+            int y = bondAtoms[2 * b + 1];
+            if (x == atomNumber) {
+                connected[n++] = y;
+            } else if (y == atomNumber) {
+                connected[n++] = x;
+            }
+        }
+        return connected;
+    }
+
+    public boolean isAromatic(int atomNumber) {
+        return false;
+    }
+
+}
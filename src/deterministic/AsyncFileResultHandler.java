@@ -0,0 +1,350 @@
+package deterministic;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.io.MDLWriter;
+import org.openscience.cdk.smiles.SmilesGenerator;
+
+import signature.Util;
+
+/**
+ * A result handler that writes the structures to files on a separate thread.
+ * The search threads only put each result on a bounded queue; the writer
+ * thread takes them off in batches, converts them, and writes them through a
+ * buffer. When the queue is full, the search threads wait, so a slow disk
+ * slows the search down rather than filling the memory.
+ *
+ * The output is split into files of about <code>maxFileSize</code> bytes,
+ * named like <code>prefix.0000.smi</code>, <code>prefix.0001.smi</code>, and
+ * so on. {@link #close()} should be called at the end, to write out the last
+ * batch and close the file; no more results can be handled after that. If the
+ * JVM exits first, a shutdown hook closes the handler, so the queued results
+ * are still written.
+ *
+ * The binary format is, for each structure, the atom count (short), the
+ * element code of each atom (byte, see {@link Util#getElementCode}), the bond
+ * count (short), then the two atoms (shorts) and order (byte) of each bond.
+ *
+ * @author maclean
+ *
+ */
+public class AsyncFileResultHandler implements EnumeratorResultHandler {
+
+    public enum Format {
+
+        SMILES("smi"), SDF("sdf"), BINARY("bin");
+
+        private String extension;
+
+        private Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return this.extension;
+        }
+    }
+
+    /**
+     * Put on the queue by close(), to tell the writer to stop
+     */
+    private static final Object END = new Object();
+
+    private BlockingQueue<Object> queue;
+
+    private int batchSize;
+
+    private File directory;
+
+    private String prefix;
+
+    private Format format;
+
+    private long maxFileSize;
+
+    private List<File> files;
+
+    private DataOutputStream out;
+
+    private Writer text;
+
+    private long count;
+
+    private Thread writerThread;
+
+    /**
+     * Closes the handler if the JVM exits before close() is called
+     */
+    private Thread shutdownHook;
+
+    /**
+     * Set once close() has been called
+     */
+    private volatile boolean closed;
+
+    /**
+     * Set by the writer thread if it fails
+     */
+    private volatile Exception failure;
+
+    /**
+     * Make a handler with a queue of 10000 results, batches of 1000, and
+     * files of up to 100MB.
+     *
+     * @param directory the directory for the files
+     * @param prefix the start of each file name
+     * @param format the file format
+     */
+    public AsyncFileResultHandler(File directory, String prefix, Format format) {
+        this(directory, prefix, format, 10000, 1000, 100L * 1024 * 1024);
+    }
+
+    /**
+     * Make a handler, and start its writer thread.
+     *
+     * @param directory the directory for the files
+     * @param prefix the start of each file name
+     * @param format the file format
+     * @param capacity the number of results that can wait to be written
+     * @param batchSize the most results to write between checks of the queue
+     * @param maxFileSize the size at which a new file is started, in bytes
+     */
+    public AsyncFileResultHandler(File directory, String prefix, Format format,
+            int capacity, int batchSize, long maxFileSize) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.format = format;
+        this.batchSize = batchSize;
+        this.maxFileSize = maxFileSize;
+        this.queue = new ArrayBlockingQueue<Object>(capacity);
+        this.files = new ArrayList<File>();
+        this.writerThread = new Thread(new Runnable() {
+            public void run() {
+                writeAll();
+            }
+        }, "result-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+        this.shutdownHook = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    close();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                }
+            }
+        }, "result-writer-shutdown");
+        Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+    }
+
+    /**
+     * Queue a result to be written, waiting if the queue is full.
+     *
+     * @param result a complete structure
+     * @throws IllegalStateException if the handler has been closed, or the 
+     *         writer has failed
+     */
+    public void handle(IAtomContainer result) {
+        checkOpen();
+        try {
+            // wait in steps, so that a close or a failure while the queue is 
+            // full does not leave this thread waiting forever
+            while (!this.queue.offer(result, 100, TimeUnit.MILLISECONDS)) {
+                checkOpen();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing", ie);
+        }
+    }
+
+    /**
+     * Wait for the queued results to be written, and close the last file.
+     * Calling this again has no further effect.
+     *
+     * @throws IOException if any result could not be written
+     */
+    public void close() throws IOException {
+        boolean first = false;
+        synchronized (this) {
+            if (!this.closed) {
+                this.closed = true;
+                first = true;
+            }
+        }
+        try {
+            if (first) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+                } catch (IllegalStateException ise) {
+                    // the JVM is already shutting down, perhaps in this hook
+                }
+                this.queue.put(END);
+            }
+            this.writerThread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing");
+        }
+        if (this.failure != null) {
+            IOException ioe = new IOException("Failed to write results");
+            ioe.initCause(this.failure);
+            throw ioe;
+        }
+    }
+
+    /**
+     * @return the number of results written so far
+     */
+    public synchronized long getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return the files written so far, in order
+     */
+    public synchronized List<File> getFiles() {
+        return new ArrayList<File>(this.files);
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("Result handler has been closed");
+        }
+        if (this.failure != null) {
+            throw new IllegalStateException(
+                    "Result writer has failed", this.failure);
+        }
+    }
+
+    /**
+     * The loop of the writer thread.
+     */
+    private void writeAll() {
+        List<Object> batch = new ArrayList<Object>(this.batchSize);
+        SmilesGenerator smilesGenerator = new SmilesGenerator();
+        
+        // true once END has been taken off the queue, even if the batch that
+        // holds it fails before reaching it
+        boolean finished = false;
+        try {
+            while (!finished) {
+                batch.add(this.queue.take());
+                this.queue.drainTo(batch, this.batchSize - 1);
+                finished = batch.contains(END);
+                for (Object item : batch) {
+                    if (item == END) break;
+                    write((IAtomContainer) item, smilesGenerator);
+                }
+                batch.clear();
+                flushAndRotate();
+            }
+            closeFile();
+        } catch (Exception e) {
+            this.failure = e;
+            try {
+                closeFile();
+            } catch (IOException ioe) {
+                // the first failure is the one to report
+            }
+            
+            // keep taking results until close, so that no producer waits 
+            // forever; they will see the failure on their next call to handle
+            if (finished) return;
+            try {
+                while (this.queue.take() != END) {
+                    continue;
+                }
+            } catch (InterruptedException ie) {
+                return;
+            }
+        }
+    }
+
+    private void write(IAtomContainer result, SmilesGenerator smilesGenerator)
+        throws Exception {
+        if (this.out == null) {
+            openFile();
+        }
+        switch (this.format) {
+            case SMILES:
+                this.text.write(smilesGenerator.createSMILES(
+                        result.getBuilder().newMolecule(result)));
+                this.text.write('\n');
+                break;
+            case SDF:
+                StringWriter molfile = new StringWriter();
+                new MDLWriter(molfile).writeMolecule(
+                        result.getBuilder().newMolecule(result));
+                this.text.write(molfile.toString());
+                this.text.write("$$$$\n");
+                break;
+            case BINARY:
+                writeBinary(result);
+                break;
+        }
+        synchronized (this) {
+            this.count++;
+        }
+    }
+
+    private void writeBinary(IAtomContainer result) throws IOException {
+        this.out.writeShort(result.getAtomCount());
+        for (int i = 0; i < result.getAtomCount(); i++) {
+            this.out.writeByte(
+                    Util.getElementCode(result.getAtom(i).getSymbol()));
+        }
+        this.out.writeShort(result.getBondCount());
+        for (IBond bond : result.bonds()) {
+            this.out.writeShort(result.getAtomNumber(bond.getAtom(0)));
+            this.out.writeShort(result.getAtomNumber(bond.getAtom(1)));
+            this.out.writeByte(bond.getOrder().ordinal() + 1);
+        }
+    }
+
+    private void openFile() throws IOException {
+        String name = String.format("%s.%04d.%s",
+                this.prefix, this.files.size(), this.format.getExtension());
+        File file = new File(this.directory, name);
+        this.out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        this.text = new OutputStreamWriter(this.out, "UTF-8");
+        synchronized (this) {
+            this.files.add(file);
+        }
+    }
+
+    /**
+     * Push the batch through to the file, and start a new file next time if
+     * this one is full.
+     */
+    private void flushAndRotate() throws IOException {
+        if (this.out == null) return;
+        this.text.flush();
+        if (this.out.size() >= this.maxFileSize) {
+            closeFile();
+        }
+    }
+
+    private void closeFile() throws IOException {
+        if (this.out == null) return;
+        this.text.close();
+        this.out = null;
+        this.text = null;
+    }
+
+}
@@ -1,8 +1,93 @@
 package deterministic;
 
+/**
+ * A bond has been added during the search. The ids and atoms are enough to
+ * rebuild any graph in the tree from the initial graph (see 
+ * {@link BondTraceRecorder}), so the parent and child graphs are only made 
+ * if a listener asks for them. The in-place search goes on changing its graph
+ * once the listeners return, so they must be got inside 
+ * {@link BondCreationListener#bondAdded(BondCreationEvent)}; after that, they
+ * are copies that a listener is free to keep - though one that keeps them 
+ * all keeps the whole search tree.
+ * 
+ * @author maclean
+ *
+ */
 public class BondCreationEvent {
 
-    public SimpleGraph parent;
+    /**
+     * The graph the search has just added the bond to, if the copies have 
+     * not been made yet
+     */
+    private SimpleGraph graph;
+
+    private SimpleGraph parent;
+    
+    private SimpleGraph child;
+    
+    /**
+     * The id of the parent node in the search tree - the initial graph is 0
+     */
+    public long parentId;
+    
+    /**
+     * The id of the new child node, unique for the enumerator
+     */
+    public long childId;
+    
+    /**
+     * The atoms of the bond that was added, or raised in order
+     */
+    public int x;
     
-    public SimpleGraph child;
+    public int y;
+
+    /**
+     * An event with the graphs of both nodes already made.
+     * 
+     * @param parent the graph before the bond was added
+     * @param child the graph after the bond was added
+     */
+    public BondCreationEvent(SimpleGraph parent, SimpleGraph child) {
+        this.parent = parent;
+        this.child = child;
+    }
+
+    /**
+     * An event for a graph that the search changes in place. The graphs of 
+     * the nodes are copied from it when asked for.
+     * 
+     * @param graph the graph, just after the bond x-y was added
+     * @param x the first atom of the bond
+     * @param y the second atom of the bond
+     */
+    BondCreationEvent(SimpleGraph graph, int x, int y) {
+        this.graph = graph;
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * @return the graph of the parent node, before the bond was added
+     */
+    public SimpleGraph getParent() {
+        if (this.parent == null) {
+            this.parent = new SimpleGraph(this.graph);
+            this.parent.unbond(this.x, this.y);
+            this.parent.setTraceId(this.parentId);
+        }
+        return this.parent;
+    }
+
+    /**
+     * @return the graph of the child node, after the bond was added
+     */
+    public SimpleGraph getChild() {
+        if (this.child == null) {
+            this.child = new SimpleGraph(this.graph);
+            this.child.setTraceId(this.childId);
+        }
+        return this.child;
+    }
+
 }
@@ -0,0 +1,223 @@
+package deterministic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A bond creation listener that records the search tree without keeping any
+ * graphs. Each event is stored as a (parentId, childId, x, y) record in a
+ * ring buffer of primitive arrays, so only the most recent
+ * <code>capacity</code> bonds are kept, and the memory used is fixed. The
+ * records can also be appended to a file, to keep the whole tree on disk.
+ *
+ * Any graph in the tree is made again on demand, by following the parent ids
+ * back to the initial graph and replaying the bonds :
+ * <pre>
+ * BondTraceRecorder recorder = new BondTraceRecorder(100000);
+ * enumerator.setBondCreationListener(recorder);
+ * enumerator.generateToHandler();
+ * SimpleGraph g = recorder.getGraph(id, initialGraph);
+ * </pre>
+ *
+ * @author maclean
+ *
+ */
+public class BondTraceRecorder implements BondCreationListener {
+
+    /**
+     * The size of a record in the file, in bytes
+     */
+    public static final int RECORD_SIZE = 20;
+
+    private long[] parentIds;
+
+    private long[] childIds;
+
+    /**
+     * The two atoms of each bond, packed as x << 16 | y
+     */
+    private int[] atoms;
+
+    /**
+     * The position in the buffer for the next record
+     */
+    private int next;
+
+    private long recordCount;
+
+    private DataOutputStream out;
+
+    /**
+     * Make a recorder that keeps the last <code>capacity</code> bonds.
+     *
+     * @param capacity the size of the ring buffer
+     */
+    public BondTraceRecorder(int capacity) {
+        this.parentIds = new long[capacity];
+        this.childIds = new long[capacity];
+        this.atoms = new int[capacity];
+    }
+
+    /**
+     * Make a recorder that also appends every record to a file. The file
+     * must be closed with {@link #close()}.
+     *
+     * @param capacity the size of the ring buffer
+     * @param file the file to write, which is replaced if it exists
+     * @throws IOException if the file cannot be opened
+     */
+    public BondTraceRecorder(int capacity, File file) throws IOException {
+        this(capacity);
+        this.out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    /**
+     * Read a trace file written by a recorder, keeping every record.
+     *
+     * @param file the trace file
+     * @return a recorder holding the records of the file
+     * @throws IOException if the file cannot be read
+     */
+    public static BondTraceRecorder load(File file) throws IOException {
+        int count = (int) (file.length() / RECORD_SIZE);
+        BondTraceRecorder recorder = new BondTraceRecorder(Math.max(1, count));
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            for (int i = 0; i < count; i++) {
+                long parentId = in.readLong();
+                long childId = in.readLong();
+                int x = in.readUnsignedShort();
+                int y = in.readUnsignedShort();
+                recorder.add(parentId, childId, x, y);
+            }
+        } finally {
+            in.close();
+        }
+        return recorder;
+    }
+
+    public synchronized void bondAdded(BondCreationEvent bondCreationEvent) {
+        add(bondCreationEvent.parentId, bondCreationEvent.childId,
+                bondCreationEvent.x, bondCreationEvent.y);
+        if (this.out != null) {
+            try {
+                this.out.writeLong(bondCreationEvent.parentId);
+                this.out.writeLong(bondCreationEvent.childId);
+                this.out.writeShort(bondCreationEvent.x);
+                this.out.writeShort(bondCreationEvent.y);
+            } catch (IOException ioe) {
+                throw new IllegalStateException("Cannot write trace", ioe);
+            }
+        }
+    }
+
+    private void add(long parentId, long childId, int x, int y) {
+        this.parentIds[this.next] = parentId;
+        this.childIds[this.next] = childId;
+        this.atoms[this.next] = (x << 16) | y;
+        this.next = (this.next + 1) % this.atoms.length;
+        this.recordCount++;
+    }
+
+    /**
+     * Flush and close the trace file, if there is one.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void close() throws IOException {
+        if (this.out != null) {
+            this.out.close();
+            this.out = null;
+        }
+    }
+
+    /**
+     * @return the number of bonds recorded, including those no longer kept
+     */
+    public synchronized long getRecordCount() {
+        return this.recordCount;
+    }
+
+    /**
+     * @return the number of records in the buffer
+     */
+    public synchronized int size() {
+        return (int) Math.min(this.recordCount, this.atoms.length);
+    }
+
+    /**
+     * @param i a record, from 0 for the oldest kept to size() - 1
+     * @return the id of the child node of the record
+     */
+    public synchronized long getChildId(int i) {
+        return this.childIds[position(i)];
+    }
+
+    /**
+     * @param i a record, from 0 for the oldest kept to size() - 1
+     * @return the id of the parent node of the record
+     */
+    public synchronized long getParentId(int i) {
+        return this.parentIds[position(i)];
+    }
+
+    private int position(int i) {
+        int oldest = (this.recordCount > this.atoms.length) ? this.next : 0;
+        return (oldest + i) % this.atoms.length;
+    }
+
+    /**
+     * Find the record that made a node, searching from the newest.
+     *
+     * @return the position in the buffer, or -1 if it is not kept
+     */
+    private int find(long childId) {
+        int n = size();
+        for (int i = n - 1; i >= 0; i--) {
+            int p = position(i);
+            if (this.childIds[p] == childId) return p;
+        }
+        return -1;
+    }
+
+    /**
+     * Make the graph of a node again, by replaying the bonds on the path to
+     * it from the initial graph.
+     *
+     * @param id the id of the node
+     * @param initialGraph the graph the search started from, which is copied
+     * @return the graph of the node, or null if part of its path is no longer
+     *         kept
+     */
+    public synchronized SimpleGraph getGraph(long id, SimpleGraph initialGraph) {
+        int depth = 0;
+        int[] path = new int[8];
+        long current = id;
+        while (current != initialGraph.getTraceId()) {
+            int p = find(current);
+            if (p == -1) return null;
+            if (depth == path.length) {
+                int[] longer = new int[2 * path.length];
+                System.arraycopy(path, 0, longer, 0, depth);
+                path = longer;
+            }
+            path[depth++] = this.atoms[p];
+            current = this.parentIds[p];
+        }
+        SimpleGraph g = new SimpleGraph(initialGraph);
+        for (int i = depth - 1; i >= 0; i--) {
+            g.bond(path[i] >>> 16, path[i] & 0xffff);
+        }
+        g.setTraceId(id);
+        return g;
+    }
+
+}
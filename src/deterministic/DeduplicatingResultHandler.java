@@ -0,0 +1,62 @@
+package deterministic;
+
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+import signature.Signature;
+import utilities.CanonicalDedupSet;
+
+/**
+ * Passes each structure on to another handler only the first time that it is
+ * seen, comparing structures by their canonical signature. Only a hash of the
+ * signature is kept for each structure (see {@link CanonicalDedupSet}), so 
+ * this can sit in front of a handler that writes the results out, without
+ * keeping the results in memory.
+ * 
+ * @author maclean
+ *
+ */
+public class DeduplicatingResultHandler implements EnumeratorResultHandler {
+    
+    private EnumeratorResultHandler handler;
+    
+    private CanonicalDedupSet seen;
+    
+    /**
+     * Deduplicate in memory.
+     * 
+     * @param handler the handler to pass the new structures on to
+     */
+    public DeduplicatingResultHandler(EnumeratorResultHandler handler) {
+        this(handler, new CanonicalDedupSet());
+    }
+    
+    /**
+     * Deduplicate using a set made by the caller - for example, one with a
+     * memory budget.
+     * 
+     * @param handler the handler to pass the new structures on to
+     * @param seen the set of structures seen so far
+     */
+    public DeduplicatingResultHandler(
+            EnumeratorResultHandler handler, CanonicalDedupSet seen) {
+        this.handler = handler;
+        this.seen = seen;
+    }
+    
+    public CanonicalDedupSet getSeen() {
+        return this.seen;
+    }
+
+    public void handle(IAtomContainer result) {
+        String signatureString = 
+            new Signature(result).toCanonicalSignatureString();
+        boolean isNew;
+        synchronized (this.seen) {
+            isNew = this.seen.add(signatureString);
+        }
+        if (isNew) {
+            this.handler.handle(result);
+        }
+    }
+
+}
@@ -8,7 +8,8 @@ import org.openscience.cdk.smiles.SmilesGenerator;
 /**
  * Default implementation of the {@link EnumeratorResultHandler} interface for
  * handling results from the enumerator. Simply prints out results to standard
- * out, so long as they are fully connected. 
+ * out, so long as they are fully connected. Results are handled one at a time,
+ * so it is safe to use in a parallel search.
  * 
  * @author maclean
  *
@@ -24,7 +25,7 @@ public class DefaultEnumeratorResultHandler implements EnumeratorResultHandler {
         this.count = 0;
     }
 
-    public void handle(IAtomContainer result) {
+    public synchronized void handle(IAtomContainer result) {
         if (ConnectivityChecker.isConnected(result)) {
             IMolecule molecule = result.getBuilder().newMolecule(result);
             String smiles = this.smilesGenerator.createSMILES(molecule);
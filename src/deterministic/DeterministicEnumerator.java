@@ -1,10 +1,18 @@
 package deterministic;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.openscience.cdk.interfaces.IAtom;
 import org.openscience.cdk.interfaces.IAtomContainer;
@@ -15,7 +23,10 @@ import org.openscience.cdk.nonotify.NoNotificationChemObjectBuilder;
 import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
 
 import signature.Orbit;
-import signature.Signature;
+import utilities.CanonicalDedupSet;
+import utilities.EnumerationControl;
+import utilities.EnumerationTracer;
+import utilities.Shard;
 
 /**
  * A structure enumerator that starts from just the elemental formula, and 
@@ -24,7 +35,373 @@ import signature.Signature;
  * @author maclean
  *
  */
-public class DeterministicEnumerator {
+public class DeterministicEnumerator implements Iterable<IAtomContainer> {
+    
+    /**
+     * A subtree of the in-place search, run as a fork/join task on its own
+     * copy of the graph. If there is no orbit, the task starts the search
+     * from the graph; otherwise it carries on saturating atom x of the orbit.
+     */
+    private class SearchTask extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+
+        private int x;
+        
+        private List<Integer> orbit;
+        
+        private int index;
+        
+        private SimpleGraph g;
+        
+        private int depth;
+        
+        public SearchTask(
+                int x, List<Integer> orbit, int index, SimpleGraph g, int depth) {
+            this.x = x;
+            this.orbit = orbit;
+            this.index = index;
+            this.g = g;
+            this.depth = depth;
+        }
+        
+        protected void compute() {
+            if (orbit == null) {
+                enumerateInPlace(g, depth);
+            } else {
+                saturateAtomInPlace(x, orbit, index, g, depth);
+            }
+        }
+    }
+    
+    /**
+     * The state of one call to saturate atom x in the in-place search : the
+     * candidate partners, how far through them we are, and the partner that
+     * is currently bonded (if any).
+     */
+    private class Frame {
+        
+        public int x;
+        
+        public List<Integer> orbit;
+        
+        public int index;
+        
+        public List<Integer> candidates;
+        
+        public int position;
+        
+        public int y = -1;
+        
+        /**
+         * The trace id of the graph before any partner is bonded
+         */
+        public long traceId;
+        
+        public Frame(int x, List<Integer> orbit, int index, 
+                List<Integer> candidates, long traceId) {
+            this.x = x;
+            this.orbit = orbit;
+            this.index = index;
+            this.candidates = candidates;
+            this.traceId = traceId;
+        }
+    }
+    
+    /**
+     * The in-place search, unrolled onto an explicit stack of frames so that
+     * it can stop after each result and carry on when the next is asked for.
+     * The initial graphs (one for each assignment of valence states) are 
+     * searched one after the other.
+     */
+    private class ResultIterator implements Iterator<IAtomContainer> {
+        
+        private List<SimpleGraph> graphs;
+        
+        /**
+         * The index in graphs of the graph being searched
+         */
+        private int graphIndex;
+        
+        private SimpleGraph g;
+        
+        private LinkedList<Frame> stack;
+        
+        private IAtomContainer next;
+        
+        private boolean started;
+        
+        /**
+         * The number of results returned by findNext
+         */
+        private long resultCount;
+        
+        /**
+         * The string form of the initial graph, to label checkpoints
+         */
+        private String initialGraph;
+        
+        private long nextCheckpointTime;
+        
+        /**
+         * True if findNext has returned a result since the last call
+         */
+        private boolean handedOut;
+        
+        public ResultIterator(List<SimpleGraph> graphs) {
+            this.graphs = graphs;
+            if (control != null) control.start();
+            this.stack = new LinkedList<Frame>();
+            if (!graphs.isEmpty()) {
+                startGraph(0);
+            }
+            this.nextCheckpointTime = 
+                System.currentTimeMillis() + checkpointInterval;
+        }
+        
+        private void startGraph(int index) {
+            this.graphIndex = index;
+            this.g = graphs.get(index);
+            this.initialGraph = g.toString();
+            this.started = false;
+            this.stack.clear();
+        }
+        
+        /**
+         * Save the current search path. This is only consistent between calls
+         * to findNext, or at the top of its loop.
+         * 
+         * @return the checkpoint
+         */
+        public SearchCheckpoint getCheckpoint() {
+            int depth = stack.size();
+            int[] positions = new int[depth];
+            int[] partners = new int[depth];
+            int i = depth - 1;
+            for (Frame frame : stack) {
+                positions[i] = frame.position;
+                partners[i] = frame.y;
+                i--;
+            }
+            return new SearchCheckpoint(
+                    initialGraph, started, resultCount, positions, partners);
+        }
+        
+        /**
+         * Rebuild the graph and the stack of frames from a checkpoint, by
+         * replaying the bonds on the path. Must be called before the first
+         * call to findNext.
+         * 
+         * @param checkpoint the checkpoint to restore
+         */
+        public void restore(SearchCheckpoint checkpoint) {
+            int index = 0;
+            while (index < graphs.size() && !graphs.get(index).toString().equals(
+                    checkpoint.getInitialGraph())) {
+                index++;
+            }
+            if (index == graphs.size()) {
+                throw new IllegalStateException(
+                        "Checkpoint is for a different search : " 
+                        + checkpoint.getInitialGraph());
+            }
+            startGraph(index);
+            this.resultCount = checkpoint.getResultCount();
+            this.started = checkpoint.isStarted();
+            if (!started) return;
+            for (int i = 0; i < checkpoint.getDepth(); i++) {
+                IAtomContainer result;
+                if (i == 0) {
+                    result = descend(null, 0);
+                } else {
+                    Frame parent = stack.getFirst();
+                    result = descend(parent.orbit, parent.index);
+                }
+                if (result != null || stack.size() != i + 1) {
+                    throw new IllegalStateException(
+                            "Checkpoint does not match the search at depth " + i);
+                }
+                Frame frame = stack.getFirst();
+                frame.position = checkpoint.getPosition(i);
+                int y = checkpoint.getPartner(i);
+                if (y != -1) {
+                    g.bond(frame.x, y);
+                    frame.y = y;
+                }
+            }
+        }
+        
+        /**
+         * Write a checkpoint if one is due. A checkpoint that cannot be 
+         * written ends the search, rather than letting it carry on as if the
+         * results so far were saved.
+         * 
+         * @param force write it even if the interval has not passed
+         */
+        private void checkpointIfDue(boolean force) {
+            if (checkpointFile == null) return;
+            long now = System.currentTimeMillis();
+            if (force || now >= nextCheckpointTime) {
+                try {
+                    getCheckpoint().write(checkpointFile);
+                } catch (IOException ioe) {
+                    g = null;
+                    throw new IllegalStateException(
+                            "Cannot write checkpoint " + checkpointFile, ioe);
+                }
+                nextCheckpointTime = now + checkpointInterval;
+            }
+        }
+
+        public boolean hasNext() {
+            if (next == null) {
+                next = findNext();
+            }
+            return next != null;
+        }
+
+        public IAtomContainer next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            IAtomContainer result = next;
+            next = null;
+            return result;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        private IAtomContainer findNext() {
+            if (handedOut) {
+                // the last result has now been handled by the caller
+                handedOut = false;
+                if (g != null && checkpointInterval == 0) {
+                    checkpointIfDue(true);
+                }
+            }
+            IAtomContainer result = search();
+            while (result == null && g != null && !isStopped() 
+                    && graphIndex + 1 < graphs.size()) {
+                // the search in these valence states is finished
+                startGraph(graphIndex + 1);
+                result = search();
+            }
+            if (result != null && !acceptResult()) {
+                // not handed out, after a cancel or past the result limit, 
+                // so step back to before it for a restart to find it again
+                stepBack();
+                result = null;
+            }
+            if (result == null) {
+                if (g != null) {
+                    // save the finished (or stopped) search, so a restart 
+                    // carries on from here
+                    checkpointIfDue(true);
+                    g = null;
+                }
+            } else {
+                resultCount++;
+                handedOut = true;
+            }
+            return result;
+        }
+        
+        /**
+         * Undo the last step of the search, which gave a result : either the
+         * bond of the top frame, or the start of the search.
+         */
+        private void stepBack() {
+            if (stack.isEmpty()) {
+                started = false;
+                return;
+            }
+            Frame frame = stack.getFirst();
+            g.unbond(frame.x, frame.y);
+            g.setTraceId(frame.traceId);
+            frame.y = -1;
+            frame.position--;
+        }
+        
+        private IAtomContainer search() {
+            if (g == null) return null;
+            if (!started) {
+                started = true;
+                IAtomContainer result = descend(null, 0);
+                if (result != null) return result;
+            }
+            while (!stack.isEmpty()) {
+                if (checkpointInterval > 0) checkpointIfDue(false);
+                if (isStopped()) return null;
+                Frame frame = stack.getFirst();
+                if (frame.y != -1) {
+                    g.unbond(frame.x, frame.y);
+                    g.setTraceId(frame.traceId);
+                    frame.y = -1;
+                }
+                if (frame.position == frame.candidates.size()) {
+                    stack.removeFirst();
+                    continue;
+                }
+                int y = frame.candidates.get(frame.position++);
+                if (y == frame.x) continue;
+                
+                // a bond that is already triple gives the same graph again
+                if (!g.bond(frame.x, y)) continue;
+                frame.y = y;
+                if (tracer != null) tracer.bondTried(g, frame.x, y);
+                
+                if (g.check(frame.x, y, tracer) 
+                        && inShard(g, stack.size())) {
+                    if (bondCreationListener != null) {
+                        fireBondAdded(g, frame.x, y);
+                    }
+                    IAtomContainer result = descend(frame.orbit, frame.index);
+                    if (result != null) return result;
+                }
+            }
+            return null;
+        }
+        
+        /**
+         * Follow the search from atom <code>index</code> of an orbit (or from 
+         * the start, if there is no orbit) until it either finds a result, 
+         * reaches a dead end, or has to choose a partner for an atom - in 
+         * which case a new frame is pushed.
+         * 
+         * @return a result, or null
+         */
+        private IAtomContainer descend(List<Integer> orbit, int index) {
+            while (true) {
+                if (orbit == null || index == orbit.size()) {
+                    if (g.isFullySaturated() && g.isConnected()) {
+                        if (!isShardSolution(g, stack.size())) return null;
+                        if (tracer != null) tracer.solutionFound(g);
+                        return g.getAtomContainer();
+                    }
+                    Orbit o = g.getUnsaturatedOrbit();
+                    if (o == null) return null;
+                    orbit = o.getAtomIndices();
+                    index = 0;
+                }
+                int x = orbit.get(index);
+                if (g.isSaturated(x)) {
+                    index++;
+                } else {
+                    // the node is pushed even if the search has stopped, so 
+                    // that a checkpoint includes it, but it is only expanded
+                    // (by the loop in search) if the control allows it
+                    if (expandNode() && tracer != null) {
+                        tracer.nodeExpanded(g, x);
+                    }
+                    stack.addFirst(new Frame(x, orbit, index, 
+                            g.unsaturatedAtoms(), g.getTraceId()));
+                    return null;
+                }
+            }
+        }
+    }
     
     /**
      * Convenience instance of a builder
@@ -52,6 +429,66 @@ public class DeterministicEnumerator {
      */
     private BondCreationListener bondCreationListener;
     
+    /**
+     * The last id given to a node of the search tree, for bond creation events
+     */
+    private AtomicLong lastTraceId = new AtomicLong();
+    
+    /**
+     * If true, search by bonding and unbonding a single graph, rather than by
+     * making a copy of the graph for every child.
+     */
+    private boolean backtracking;
+    
+    /**
+     * If true, every atom is kept in the standard valence state of its 
+     * element, instead of trying the higher states too
+     */
+    private boolean standardValences;
+    
+    /**
+     * Receives the search events, if not null
+     */
+    private EnumerationTracer tracer;
+    
+    /**
+     * If not null, the in-place search is run in parallel on this pool
+     */
+    private ForkJoinPool pool;
+    
+    /**
+     * In a parallel search, subtrees with fewer bonds than this are forked as
+     * separate tasks; below it, each task searches sequentially.
+     */
+    private int forkDepth = 4;
+    
+    /**
+     * If not null, the search is saved to this file from time to time
+     */
+    private File checkpointFile;
+    
+    /**
+     * The minimum time between checkpoints, in milliseconds
+     */
+    private long checkpointInterval;
+    
+    /**
+     * If not null, only the part of the search tree that belongs to this
+     * shard is searched
+     */
+    private Shard shard;
+    
+    /**
+     * If not null, the in-place search counts the solutions into this, 
+     * instead of passing them to the handler
+     */
+    private IsomerCount counter;
+    
+    /**
+     * Limits and cancellation for the search, if not null
+     */
+    private EnumerationControl control;
+    
     /**
      * Start from just the formula string.
      * 
@@ -73,6 +510,172 @@ public class DeterministicEnumerator {
         this.bondCreationListener = listener;
     }
     
+    /**
+     * Set a tracer to receive the events of the search - for example, an 
+     * {@link utilities.EnumerationStats} to count them. With no tracer set, nothing is
+     * reported and nothing extra is computed.
+     * 
+     * @param tracer the tracer, or null to turn tracing off
+     */
+    public void setTracer(EnumerationTracer tracer) {
+        this.tracer = tracer;
+    }
+    
+    /**
+     * Set the limits, cancellation and progress reporting for the search. 
+     * When the control says to stop, the search returns normally, having 
+     * handed out the results found so far. The control is started again by
+     * every call to generate, count or iterator.
+     * 
+     * With a checkpoint file, a search that is stopped early saves its 
+     * position, so that a later run carries on from there.
+     * 
+     * @param control the control, or null for an unlimited search
+     */
+    public void setControl(EnumerationControl control) {
+        this.control = control;
+    }
+    
+    /**
+     * @return true if there is a control, and it says to stop
+     */
+    private boolean isStopped() {
+        return this.control != null && this.control.isStopped();
+    }
+    
+    /**
+     * @return false if there is a control, and the node should not be expanded
+     */
+    private boolean expandNode() {
+        return this.control == null || this.control.nodeExpanded();
+    }
+    
+    /**
+     * @return false if there is a control, and the solution should be dropped
+     */
+    private boolean acceptResult() {
+        return this.control == null || this.control.acceptResult();
+    }
+    
+    /**
+     * Choose between the two search modes. When backtracking, the enumerator
+     * adds a bond to one mutable graph, recurses, then removes the bond again,
+     * passing each solution to the handler as it is found. This keeps memory
+     * proportional to the depth of the search, whereas the default mode keeps
+     * a copy of every sibling graph at every level.
+     * 
+     * Note that a bond creation listener sees copies of the graph, taken at
+     * the time of each bond, as the graph itself keeps changing.
+     * 
+     * @param backtracking true to search in-place
+     */
+    public void setBacktracking(boolean backtracking) {
+        this.backtracking = backtracking;
+    }
+    
+    /**
+     * By default, the structures for every assignment of valence states to 
+     * the atoms are made - for example, with N(3) and N(5), or S(2), S(4) and
+     * S(6) - the standard (lowest) states first. Each assignment is searched
+     * in turn, from its own initial graph.
+     * 
+     * @param standardValences true to only use the standard valence states
+     */
+    public void setStandardValences(boolean standardValences) {
+        this.standardValences = standardValences;
+    }
+    
+    /**
+     * Run the search in parallel on a fork/join pool. This uses the same 
+     * in-place search as {@link #setBacktracking(boolean)}, but each subtree 
+     * rooted above the fork depth is searched as a separate task on its own
+     * copy of the graph. Idle threads steal these tasks from busy ones.
+     * 
+     * In this mode the result handler and any bond creation listener are
+     * called from several threads at once, so the handler must be thread-safe
+     * (see {@link EnumeratorResultHandler}). 
+     * 
+     * @param pool the pool to run on, or null to search on the calling thread
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+    
+    /**
+     * Set the depth - counted in bonds added - above which subtrees are forked 
+     * in a parallel search. A higher value makes more, smaller tasks.
+     * 
+     * @param forkDepth the number of bonds
+     */
+    public void setForkDepth(int forkDepth) {
+        this.forkDepth = forkDepth;
+    }
+    
+    /**
+     * Save the search to a file every <code>interval</code> milliseconds, and 
+     * when it finishes. If the file already exists when the search starts, 
+     * the search resumes from the saved point, so results handed out before
+     * the checkpoint are not handed out again. A checkpoint is only resumed
+     * by an enumerator for the same formula or initial container.
+     * 
+     * Checkpoints are taken between results, after the last one has been 
+     * handled. An interval of 0 means a checkpoint after every result, so no
+     * result is ever handed out twice. With a longer interval, the results 
+     * since the last checkpoint are found again after a crash; 
+     * {@link SearchCheckpoint#getResultCount()} says how many results came 
+     * before it. If a checkpoint cannot be written, the search stops with an
+     * IllegalStateException.
+     * 
+     * Checkpointing uses the in-place search on the calling thread, so it
+     * takes priority over {@link #setForkJoinPool(ForkJoinPool)} and the copy
+     * search.
+     * 
+     * @param file the checkpoint file, or null to turn checkpointing off
+     * @param interval the time between checkpoints, in milliseconds
+     */
+    public void setCheckpointFile(File file, long interval) {
+        this.checkpointFile = file;
+        this.checkpointInterval = interval;
+    }
+    
+    /**
+     * Search only one shard of the tree, so that a large enumeration can be
+     * split between processes or machines. Each process is given the same
+     * formula and shard count, and a different shard index; between them
+     * they find every result exactly once, apart from the duplicates that a
+     * single search would also find, so the outputs should be merged by
+     * canonical signature.
+     * 
+     * Sharding uses the in-place search, so it is ignored by the copy search;
+     * it works with the iterator, checkpoints and a fork/join pool.
+     * 
+     * @param shard the shard to search, or null to search the whole tree
+     */
+    public void setShard(Shard shard) {
+        this.shard = shard;
+    }
+    
+    /**
+     * @param g the graph at the end of a path of <code>depth</code> bonds
+     * @param depth the number of bonds added
+     * @return false if the path has reached the shard depth, and the subtree
+     *         below it belongs to another shard
+     */
+    private boolean inShard(SimpleGraph g, int depth) {
+        return shard == null 
+            || depth != shard.getDepth() || shard.owns(g.getMatrix());
+    }
+    
+    /**
+     * @param g a solution found after <code>depth</code> bonds
+     * @param depth the number of bonds added
+     * @return true if the solution should be handed out by this shard
+     */
+    private boolean isShardSolution(SimpleGraph g, int depth) {
+        return shard == null 
+            || depth >= shard.getDepth() || shard.owns(g.getMatrix());
+    }
+    
     /**
      * Set the result handler. 
      * 
@@ -89,7 +692,6 @@ public class DeterministicEnumerator {
         for (IIsotope isotope : formula.isotopes()) {
             for (int i = 0; i < formula.getIsotopeCount(isotope); i++) {
                 atoms.add(this.builder.newAtom(isotope));
-                System.out.println("added " + isotope.getSymbol());
             }
         }
         
@@ -106,46 +708,152 @@ public class DeterministicEnumerator {
     }
     
     /**
-     * Create the structures, passing each one to the result handler.
+     * Make the graphs to start the search from : one for each assignment of
+     * valence states to the atoms, or just the one with the standard states.
+     * 
+     * @return the initial graphs, which may be none
      */
-    public void generateToHandler() {
-        SimpleGraph initialGraph;
+    private List<SimpleGraph> makeInitialGraphs() {
+        IAtomContainer container;
         if (this.formula != null) {
-            initialGraph = new SimpleGraph(this.makeAtomContainerFromFormula());
+            container = this.makeAtomContainerFromFormula();
         } else if (this.initialContainer != null) {
-            initialGraph = new SimpleGraph(this.initialContainer);
+            container = this.initialContainer;
         } else {
+            return new ArrayList<SimpleGraph>();
+        }
+        if (!this.standardValences) {
+            return SimpleGraph.forValenceStates(container);
+        }
+        
+        // no bond changes the parity, so an odd total can never be saturated
+        List<SimpleGraph> graphs = new ArrayList<SimpleGraph>();
+        SimpleGraph g = new SimpleGraph(container);
+        if (g.getMatrix().hasEvenValence()) {
+            graphs.add(g);
+        }
+        return graphs;
+    }
+    
+    /**
+     * Iterate over the structures lazily, using the in-place search. The
+     * search only runs as far as the next result, so taking just the first
+     * few results, or passing them straight on to another stage, never holds
+     * more than the current search path in memory. As with 
+     * {@link #generateToHandler()}, the results are not checked for
+     * duplicates. For example:<pre>
+     * 
+     * for (IAtomContainer result : new DeterministicEnumerator("C6H14")) {
+     *     // ...
+     *     if (enough) break;
+     * }
+     * </pre>
+     * 
+     * @return an iterator over the structures
+     */
+    public Iterator<IAtomContainer> iterator() {
+        ResultIterator iterator = new ResultIterator(this.makeInitialGraphs());
+        if (this.checkpointFile != null && this.checkpointFile.exists()) {
+            try {
+                iterator.restore(SearchCheckpoint.read(this.checkpointFile));
+            } catch (IOException ioe) {
+                throw new IllegalStateException(
+                        "Cannot read checkpoint " + this.checkpointFile, ioe);
+            }
+        }
+        return iterator;
+    }
+    
+    /**
+     * Create the structures, passing each one to the result handler.
+     */
+    public void generateToHandler() {
+        if (this.checkpointFile != null) {
+            // the iterator starts the control itself
+            Iterator<IAtomContainer> iterator = this.iterator();
+            while (iterator.hasNext()) {
+                this.handler.handle(iterator.next());
+            }
             return;
         }
-        this.enumerate(initialGraph);
+        List<SimpleGraph> initialGraphs = this.makeInitialGraphs();
+        if (this.control != null) this.control.start();
+        for (SimpleGraph initialGraph : initialGraphs) {
+            if (this.pool != null) {
+                this.pool.invoke(new SearchTask(-1, null, 0, initialGraph, 0));
+            } else if (this.backtracking || this.shard != null) {
+                this.enumerateInPlace(initialGraph, 0);
+            } else {
+                this.enumerate(initialGraph);
+            }
+        }
     }
     
     /**
-     * Generate the structures, and return them in a list.
+     * Count the different structures, without making any atom containers or 
+     * calling the handler. This uses the in-place search, in parallel if a 
+     * pool has been set, and only the shard if one has been set.
      * 
-     * @return a list of atom containers
+     * @param breakDown if true, also count the structures by degree sequence
+     *        and by first-level orbits
+     * @return the counts
      */
-    public List<IAtomContainer> generate() {
-//        final List<IAtomContainer> results = new ArrayList<IAtomContainer>();
-        final HashMap<String, IAtomContainer> results = 
-            new HashMap<String, IAtomContainer>();
-        this.handler = new EnumeratorResultHandler() {
-            public void handle(IAtomContainer result) {
-                String signatureString = 
-                    new Signature(result).toCanonicalSignatureString();
-                if (results.containsKey(signatureString)) {
-                    return;
+    public IsomerCount count(boolean breakDown) {
+        IsomerCount isomerCount = new IsomerCount(breakDown);
+        List<SimpleGraph> initialGraphs = this.makeInitialGraphs();
+        this.counter = isomerCount;
+        if (this.control != null) this.control.start();
+        try {
+            for (SimpleGraph initialGraph : initialGraphs) {
+                if (this.pool != null) {
+                    this.pool.invoke(
+                            new SearchTask(-1, null, 0, initialGraph, 0));
                 } else {
-                    results.put(signatureString, result);
+                    this.enumerateInPlace(initialGraph, 0);
                 }
             }
-        };
+        } finally {
+            this.counter = null;
+        }
+        return isomerCount;
+    }
+    
+    /**
+     * Generate the structures, and return them in a list.
+     * 
+     * @return a list of atom containers
+     */
+    public List<IAtomContainer> generate() {
+        return this.generate(new CanonicalDedupSet());
+    }
+    
+    /**
+     * Generate the structures, using the given set to remove duplicates. For
+     * a large formula, the set can be given a memory budget, and spill to 
+     * disk.
+     * 
+     * @param seen the (empty) set of the structures seen
+     * @return a list of atom containers, in the order they were found
+     */
+    public List<IAtomContainer> generate(CanonicalDedupSet seen) {
+        final List<IAtomContainer> results = new ArrayList<IAtomContainer>();
+        this.handler = new DeduplicatingResultHandler(
+                new EnumeratorResultHandler() {
+                    public void handle(IAtomContainer result) {
+                        synchronized (results) {
+                            results.add(result);
+                        }
+                    }
+                }, seen);
         this.generateToHandler();
-        return new ArrayList<IAtomContainer>(results.values());
+        return results;
     }
     
     private void enumerate(SimpleGraph g) {
-        if (g.isConnected() && g.isFullySaturated()) {
+        if (isStopped()) return;
+        if (g.isFullySaturated() && g.isConnected()) {
+            if (!acceptResult()) return;
+            if (this.tracer != null) this.tracer.solutionFound(g);
             this.handler.handle(g.getAtomContainer());
         } else {
             Orbit o = g.getUnsaturatedOrbit();
@@ -164,14 +872,11 @@ public class DeterministicEnumerator {
     }
     
     private void saturateOrbit(Orbit o, SimpleGraph g, ArrayList<SimpleGraph> s) {
-        System.out.println("Saturating orbit : " + o);
         if (o == null || o.isEmpty()) {
-            System.out.println("orbit empty");
             s.add(g);
         } else {
             int x = o.getFirstAtom();
             o.remove(x);
-            System.out.println("first atom " + x);
             
             for (SimpleGraph h : saturateAtom(x, g)) {
                 saturateOrbit(o, h, s);
@@ -186,25 +891,28 @@ public class DeterministicEnumerator {
     }
     
     private void saturateAtom(int x, SimpleGraph g, List<SimpleGraph> s) {
-        System.out.println("saturating atom " + x + " in " + g);
         if (g.isSaturated(x)) {
-            System.out.println(x + " is already saturated");
             s.add(g);
             return;
         } else {
+            if (!expandNode()) return;
+            if (this.tracer != null) this.tracer.nodeExpanded(g, x);
             List<Integer> unsaturatedAtoms = g.unsaturatedAtoms();
-            System.out.println("trying all of " + unsaturatedAtoms);
             for (int y : unsaturatedAtoms) {
+                if (isStopped()) return;
                 if (x == y) continue;
                 SimpleGraph copy = new SimpleGraph(g);
                 copy.bond(x, y);
+                if (this.tracer != null) this.tracer.bondTried(copy, x, y);
                 
-                if (copy.check(x, y)) {
-                    System.out.println("passed all tests");
+                if (copy.check(x, y, this.tracer)) {
                     if (this.bondCreationListener != null) {
-                        BondCreationEvent b = new BondCreationEvent();
-                        b.parent = g;
-                        b.child = copy;
+                        copy.setTraceId(this.lastTraceId.incrementAndGet());
+                        BondCreationEvent b = new BondCreationEvent(g, copy);
+                        b.parentId = g.getTraceId();
+                        b.childId = copy.getTraceId();
+                        b.x = x;
+                        b.y = y;
                         this.bondCreationListener.bondAdded(b);
                     }
                     saturateAtom(x, copy, s);
@@ -212,4 +920,91 @@ public class DeterministicEnumerator {
             }
         }
     }
+    
+    private void enumerateInPlace(SimpleGraph g, int depth) {
+        if (g.isFullySaturated() && g.isConnected()) {
+            if (!isShardSolution(g, depth)) return;
+            if (!acceptResult()) return;
+            if (this.tracer != null) this.tracer.solutionFound(g);
+            if (this.counter != null) {
+                this.counter.add(g.getMatrix());
+            } else {
+                this.handler.handle(g.getAtomContainer());
+            }
+        } else {
+            Orbit o = g.getUnsaturatedOrbit();
+            if (o == null) return;
+            saturateOrbitInPlace(o.getAtomIndices(), 0, g, depth);
+        }
+    }
+    
+    /**
+     * Saturate the atoms of an orbit from <code>index</code> onwards; once the 
+     * whole orbit is saturated, carry on with the next orbit.
+     * 
+     * @param orbit the atoms of the orbit
+     * @param index the position in the orbit of the next atom to saturate
+     * @param g the graph, which is returned unchanged
+     * @param depth the number of bonds added so far
+     */
+    private void saturateOrbitInPlace(
+            List<Integer> orbit, int index, SimpleGraph g, int depth) {
+        if (index == orbit.size()) {
+            enumerateInPlace(g, depth);
+        } else {
+            saturateAtomInPlace(orbit.get(index), orbit, index, g, depth);
+        }
+    }
+    
+    private void saturateAtomInPlace(
+            int x, List<Integer> orbit, int index, SimpleGraph g, int depth) {
+        if (g.isSaturated(x)) {
+            saturateOrbitInPlace(orbit, index + 1, g, depth);
+            return;
+        }
+        if (!expandNode()) return;
+        if (this.tracer != null) this.tracer.nodeExpanded(g, x);
+        boolean fork = this.pool != null && depth < this.forkDepth;
+        List<SearchTask> tasks = new ArrayList<SearchTask>();
+        long traceId = g.getTraceId();
+        for (int y : g.unsaturatedAtoms()) {
+            if (isStopped()) break;
+            if (x == y) continue;
+            
+            // a bond that is already triple gives the same graph again
+            if (!g.bond(x, y)) continue;
+            if (this.tracer != null) this.tracer.bondTried(g, x, y);
+            
+            if (g.check(x, y, this.tracer) && inShard(g, depth + 1)) {
+                if (this.bondCreationListener != null) {
+                    fireBondAdded(g, x, y);
+                }
+                if (fork) {
+                    tasks.add(new SearchTask(
+                            x, orbit, index, new SimpleGraph(g), depth + 1));
+                } else {
+                    saturateAtomInPlace(x, orbit, index, g, depth + 1);
+                }
+            }
+            g.unbond(x, y);
+            g.setTraceId(traceId);
+        }
+        if (!tasks.isEmpty()) {
+            ForkJoinTask.invokeAll(tasks);
+        }
+    }
+    
+    /**
+     * Tell the listener about the bond x-y, just made in g, and give g the id
+     * of the new node. The caller puts back the old id when it unbonds.
+     */
+    private void fireBondAdded(SimpleGraph g, int x, int y) {
+        BondCreationEvent b = new BondCreationEvent(g, x, y);
+        b.parentId = g.getTraceId();
+        b.childId = this.lastTraceId.incrementAndGet();
+        g.setTraceId(b.childId);
+        synchronized (this.bondCreationListener) {
+            this.bondCreationListener.bondAdded(b);
+        }
+    }
 }
@@ -23,11 +23,22 @@ import org.openscience.cdk.interfaces.IAtomContainer;
  * {@link DefaultEnumeratorResultHandler} has the same behaviour as the simple
  * example defined above.
  * 
+ * When the enumerator is run in parallel (see 
+ * {@link DeterministicEnumerator#setForkJoinPool}) the handle method is called
+ * from several threads at once, so implementations must be thread-safe. Each
+ * result is a new container that the enumerator does not touch again, so it 
+ * is only shared state inside the handler that needs guarding.
+ * 
  * @author maclean
  *
  */
 public interface EnumeratorResultHandler {
     
+    /**
+     * Handle a single result - may be called concurrently in a parallel search.
+     * 
+     * @param result a complete structure
+     */
     public void handle(IAtomContainer result);
 
 }
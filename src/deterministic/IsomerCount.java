@@ -0,0 +1,178 @@
+package deterministic;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import signature.IAtomGraph;
+import signature.Signature;
+import utilities.CanonicalDedupSet;
+
+/**
+ * The result of a count-only enumeration : the number of different structures
+ * found, and optionally how many there are with each degree sequence and
+ * with each set of first-level orbits. Each solution is checked against the
+ * ones already seen by its canonical signature, which is made straight from
+ * the search graph, so no atom container is ever built. The signatures are
+ * made before the lock is taken, so the searches of a parallel count only
+ * wait for each other to update the set and the maps.
+ *
+ * @author maclean
+ *
+ */
+public class IsomerCount {
+
+    private CanonicalDedupSet seen;
+
+    private long total;
+
+    private long solutions;
+
+    /**
+     * The counts for each degree sequence, or null if not wanted
+     */
+    private Map<String, Long> byDegreeSequence;
+
+    /**
+     * The counts for each set of first-level orbits, or null if not wanted
+     */
+    private Map<String, Long> byFirstLevelOrbits;
+
+    /**
+     * @param breakDown if true, also count by degree sequence and by
+     *        first-level orbits
+     */
+    public IsomerCount(boolean breakDown) {
+        this.seen = new CanonicalDedupSet();
+        if (breakDown) {
+            this.byDegreeSequence = new TreeMap<String, Long>();
+            this.byFirstLevelOrbits = new TreeMap<String, Long>();
+        }
+    }
+
+    /**
+     * Count a solution, unless it is the same as one already counted.
+     *
+     * @param graph a complete structure
+     */
+    public void add(IAtomGraph graph) {
+        Signature signature = new Signature(graph);
+        String signatureString = signature.toCanonicalSignatureString();
+        String degreeKey = null;
+        String orbitKey = null;
+        if (this.byDegreeSequence != null) {
+            degreeKey = IsomerCount.degreeSequence(graph);
+            orbitKey = IsomerCount.firstLevelOrbits(signature, graph);
+        }
+        synchronized (this) {
+            this.solutions++;
+            if (!this.seen.add(signatureString)) return;
+            this.total++;
+            if (degreeKey != null) {
+                IsomerCount.increment(this.byDegreeSequence, degreeKey);
+                IsomerCount.increment(this.byFirstLevelOrbits, orbitKey);
+            }
+        }
+    }
+
+    private static void increment(Map<String, Long> counts, String key) {
+        Long count = counts.get(key);
+        if (count == null) {
+            counts.put(key, 1L);
+        } else {
+            counts.put(key, count + 1);
+        }
+    }
+
+    /**
+     * The first-level orbits of a structure - the atoms grouped by their
+     * signature of height 1, that is the atom and its neighbours - with the
+     * size of each group, like "[C]([C][H][H][H])x2 [H]([C])x6".
+     *
+     * @param signature the signature of the graph
+     * @param graph the graph
+     * @return the orbits as a string
+     */
+    public static String firstLevelOrbits(Signature signature, IAtomGraph graph) {
+        int n = graph.getAtomCount();
+        String[] atomSignatures = new String[n];
+        for (int i = 0; i < n; i++) {
+            atomSignatures[i] = signature.forAtom(i, 1);
+        }
+        Arrays.sort(atomSignatures);
+        StringBuffer sb = new StringBuffer();
+        int start = 0;
+        for (int i = 1; i <= n; i++) {
+            if (i == n || !atomSignatures[i].equals(atomSignatures[start])) {
+                if (start > 0) sb.append(" ");
+                sb.append(atomSignatures[start]).append("x").append(i - start);
+                start = i;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The degrees of the atoms, largest first, like "4,4,1,1,1,1,1,1".
+     *
+     * @param graph a graph
+     * @return the degree sequence as a string
+     */
+    public static String degreeSequence(IAtomGraph graph) {
+        int n = graph.getAtomCount();
+        int[] degrees = new int[n];
+        for (int i = 0; i < n; i++) {
+            degrees[i] = graph.getDegree(i);
+        }
+        Arrays.sort(degrees);
+        StringBuffer sb = new StringBuffer();
+        for (int i = n - 1; i >= 0; i--) {
+            sb.append(degrees[i]);
+            if (i > 0) sb.append(",");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the number of different structures
+     */
+    public synchronized long getTotal() {
+        return this.total;
+    }
+
+    /**
+     * @return the number of solutions found, including duplicates
+     */
+    public synchronized long getSolutionCount() {
+        return this.solutions;
+    }
+
+    /**
+     * @return the count for each degree sequence, or null if not counted
+     */
+    public synchronized Map<String, Long> getCountsByDegreeSequence() {
+        if (this.byDegreeSequence == null) {
+            return null;
+        } else {
+            return new TreeMap<String, Long>(this.byDegreeSequence);
+        }
+    }
+
+    /**
+     * @return the count for each set of first-level orbits, or null if not
+     *         counted
+     * @see #firstLevelOrbits(Signature, IAtomGraph)
+     */
+    public synchronized Map<String, Long> getCountsByFirstLevelOrbits() {
+        if (this.byFirstLevelOrbits == null) {
+            return null;
+        } else {
+            return new TreeMap<String, Long>(this.byFirstLevelOrbits);
+        }
+    }
+
+    public String toString() {
+        return String.valueOf(getTotal());
+    }
+
+}
@@ -0,0 +1,103 @@
+package deterministic;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Published numbers of constitutional isomers (ignoring stereochemistry) for
+ * some hydrocarbon formulas, to check the enumerator against. The acyclic
+ * alkanes CnH2n+2 and CnH2n (alkenes and cycloalkanes together) are given
+ * for up to C12. For CnH2n-2 (alkynes, dienes, cycloalkenes and bicyclic
+ * alkanes) only the counts up to C5 are included.
+ * <p>
+ * Only the entries returned by {@link #getVerifiedFormulas()} have been
+ * reproduced by the enumerator, in every search mode. The complete canonicity
+ * check tries every permutation of the hydrogens, so the larger formulas take
+ * minutes or hours each; their counts are the published values, unverified
+ * here.
+ *
+ * @author maclean
+ *
+ */
+public class KnownIsomerCounts {
+
+    private static final Map<String, Long> COUNTS =
+        new LinkedHashMap<String, Long>();
+
+    /**
+     * The formulas whose counts the tests check, all of 12 atoms or less
+     */
+    private static final List<String> VERIFIED = Arrays.asList(
+            "CH4", "C2H6", "C3H8", 
+            "C2H4", "C3H6", "C4H8",
+            "C2H2", "C3H4", "C4H6");
+
+    static {
+        // alkanes
+        long[] alkanes = { 1, 1, 1, 2, 3, 5, 9, 18, 35, 75, 159, 355 };
+        for (int n = 1; n <= alkanes.length; n++) {
+            COUNTS.put(formula(n, 2 * n + 2), alkanes[n - 1]);
+        }
+
+        // alkenes and cycloalkanes
+        long[] oneUnsaturation = 
+            { 1, 2, 5, 10, 25, 56, 139, 338, 852, 2140, 5498 };
+        for (int n = 2; n < oneUnsaturation.length + 2; n++) {
+            COUNTS.put(formula(n, 2 * n), oneUnsaturation[n - 2]);
+        }
+
+        // alkynes, dienes, cycloalkenes and bicyclic alkanes
+        long[] twoUnsaturations = { 1, 3, 9, 26 };
+        for (int n = 2; n < twoUnsaturations.length + 2; n++) {
+            COUNTS.put(formula(n, 2 * n - 2), twoUnsaturations[n - 2]);
+        }
+    }
+
+    private static String formula(int carbons, int hydrogens) {
+        if (carbons == 1) {
+            return "CH" + hydrogens;
+        } else {
+            return "C" + carbons + "H" + hydrogens;
+        }
+    }
+
+    /**
+     * @param formula a formula string like "C4H10"
+     * @return the known number of isomers, or -1 if it is not in the table
+     */
+    public static long getCount(String formula) {
+        Long count = COUNTS.get(formula);
+        if (count == null) {
+            return -1;
+        } else {
+            return count;
+        }
+    }
+
+    /**
+     * @return the formulas in the table, smallest first within each series
+     */
+    public static Iterable<String> getFormulas() {
+        return COUNTS.keySet();
+    }
+
+    /**
+     * @return the formulas whose counts the enumerator has been checked 
+     *         against, smallest first within each series
+     */
+    public static List<String> getVerifiedFormulas() {
+        return Collections.unmodifiableList(VERIFIED);
+    }
+
+    /**
+     * @param formula a formula string like "C4H10"
+     * @return true if the enumerator has been checked against this count
+     */
+    public static boolean isVerified(String formula) {
+        return VERIFIED.contains(formula);
+    }
+
+}
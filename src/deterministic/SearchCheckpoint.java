@@ -0,0 +1,160 @@
+package deterministic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The frontier of an in-place search, saved so that the search can carry on
+ * after a restart. As the search is deterministic, the whole state is just
+ * the choices made on the current path : for each atom being saturated, how
+ * far it has got through its list of candidate partners, and the partner it
+ * is currently bonded to. Replaying these choices on the initial graph gives
+ * back the exact same graph and stack.
+ *
+ * The initial graph is stored (as a string) to check that a checkpoint is
+ * only resumed by an enumerator for the same problem.
+ *
+ * @author maclean
+ *
+ */
+public class SearchCheckpoint {
+
+    private static final int MAGIC = 0x53434b31;   // "SCK1"
+
+    private String initialGraph;
+
+    private boolean started;
+
+    private long resultCount;
+
+    private int[] positions;
+
+    private int[] partners;
+
+    /**
+     * Make a checkpoint.
+     *
+     * @param initialGraph the string form of the graph the search started on
+     * @param started false if the search has not made its first step yet
+     * @param resultCount the number of results already handed out
+     * @param positions for each frame, bottom first, the next candidate
+     * @param partners for each frame, the bonded partner, or -1
+     */
+    public SearchCheckpoint(String initialGraph, boolean started,
+            long resultCount, int[] positions, int[] partners) {
+        this.initialGraph = initialGraph;
+        this.started = started;
+        this.resultCount = resultCount;
+        this.positions = positions;
+        this.partners = partners;
+    }
+
+    public String getInitialGraph() {
+        return initialGraph;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * @return the number of results handed out before the checkpoint
+     */
+    public long getResultCount() {
+        return resultCount;
+    }
+
+    /**
+     * @return the number of frames on the search stack
+     */
+    public int getDepth() {
+        return positions.length;
+    }
+
+    public int getPosition(int frame) {
+        return positions[frame];
+    }
+
+    public int getPartner(int frame) {
+        return partners[frame];
+    }
+
+    /**
+     * @return true if the search had finished
+     */
+    public boolean isFinished() {
+        return started && positions.length == 0;
+    }
+
+    /**
+     * Write the checkpoint to a file. It is written to a temporary file first,
+     * and then renamed, so a crash while writing leaves the old checkpoint in
+     * place.
+     *
+     * @param file the file to write
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeUTF(initialGraph);
+            out.writeBoolean(started);
+            out.writeLong(resultCount);
+            out.writeInt(positions.length);
+            for (int i = 0; i < positions.length; i++) {
+                out.writeInt(positions[i]);
+                out.writeInt(partners[i]);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // some platforms will not rename over an existing file
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        }
+    }
+
+    /**
+     * Read a checkpoint written by {@link #write(File)}.
+     *
+     * @param file the file to read
+     * @return the checkpoint
+     * @throws IOException if the file is not a checkpoint
+     */
+    public static SearchCheckpoint read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a search checkpoint");
+            }
+            String initialGraph = in.readUTF();
+            boolean started = in.readBoolean();
+            long resultCount = in.readLong();
+            int depth = in.readInt();
+            int[] positions = new int[depth];
+            int[] partners = new int[depth];
+            for (int i = 0; i < depth; i++) {
+                positions[i] = in.readInt();
+                partners[i] = in.readInt();
+            }
+            return new SearchCheckpoint(
+                    initialGraph, started, resultCount, positions, partners);
+        } finally {
+            in.close();
+        }
+    }
+
+}
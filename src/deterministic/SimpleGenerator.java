@@ -1,73 +1,211 @@
 package deterministic;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.openscience.cdk.Molecule;
 import org.openscience.cdk.exception.CDKException;
-import org.openscience.cdk.interfaces.IAtom;
 import org.openscience.cdk.interfaces.IAtomContainer;
-import org.openscience.cdk.interfaces.IBond;
 import org.openscience.cdk.interfaces.IMolecule;
 
 import signature.Util;
 import utilities.CanonicalChecker;
 
+/**
+ * Generates connected graphs by adding single bonds one at a time, keeping
+ * only the canonical ones. The search runs in place on an
+ * {@link AdjacencyMatrix}, bonding and unbonding as it goes. The partners for
+ * an atom are taken from the set of unsaturated atoms, skipping those already
+ * bonded to it (a bitset for each atom) and, for a monovalent atom, the other
+ * monovalent atoms.
+ *
+ * With a fork/join pool, each first bond is searched as a separate task. The
+ * results of each task are kept apart and joined in order at the end, so the
+ * list is the same as from a search on one thread.
+ *
+ * @author maclean
+ *
+ */
 public class SimpleGenerator {
-    
+
+    /**
+     * The search from one choice of first bond, on its own copy of the graph
+     */
+    private class BranchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private SimpleGraph g;
+
+        private BitSet[] bonded;
+
+        private BitSet monovalent;
+
+        private List<IMolecule> results;
+
+        public BranchTask(SimpleGraph g, BitSet[] bonded, BitSet monovalent) {
+            this.g = g;
+            this.bonded = bonded;
+            this.monovalent = monovalent;
+            this.results = new ArrayList<IMolecule>();
+        }
+
+        protected void compute() {
+            extend(g, bonded, monovalent, results, null);
+        }
+    }
+
+    /**
+     * If not null, the first bonds are searched in parallel on this pool
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * Search the first bonds in parallel on a fork/join pool.
+     *
+     * @param pool the pool, or null to search on the calling thread
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
     public List<IMolecule> generate(String formula) throws CDKException {
         List<IMolecule> results = new ArrayList<IMolecule>();
-        IAtomContainer initialContainer = 
+        IAtomContainer initialContainer =
             Util.makeAtomContainerFromFormulaString(formula);
         extend(initialContainer, results);
         return results;
     }
-    
-    public void extend(IAtomContainer current, List<IMolecule> results) 
+
+    /**
+     * Add to the results all the canonical connected graphs that can be made
+     * by adding single bonds to a container.
+     *
+     * @param current the container to start from
+     * @param results the list to add the results to
+     */
+    public void extend(IAtomContainer current, List<IMolecule> results)
         throws CDKException {
         if (current == null) return;
+
+        SimpleGraph g = new SimpleGraph(current);
+        AdjacencyMatrix matrix = g.getMatrix();
+        int n = matrix.getAtomCount();
         
-        if (isComplete(current)) {
-            results.add(new Molecule(current));
-        } else {
-            int n = current.getAtomCount();
-            for (int i = 0; i < n - 1; i++) {
-                if (Util.isSaturated(current.getAtom(i), current)) {
-                    continue;
-                }
-                for (int j = i + 1; j < n; j++) {
-                    if (canBond(current, i, j)) {
-                        IAtomContainer copy = makeCopy(current);
-                        copy.addBond(i, j, IBond.Order.SINGLE);
-                        if (CanonicalChecker.isCanonical(copy)) {
-                            extend(copy, results);
-                        }
+        // the atoms with a valence of one, like hydrogen; this is only read 
+        // during the search, so the branch tasks can share it
+        BitSet monovalent = new BitSet(n);
+        BitSet[] bonded = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            bonded[i] = new BitSet(n);
+            if (matrix.getValence(i) == 1) {
+                monovalent.set(i);
+            }
+            for (int j : matrix.getConnected(i)) {
+                bonded[i].set(j);
+            }
+        }
+
+        if (this.pool == null) {
+            extend(g, bonded, monovalent, results, null);
+            return;
+        }
+        List<BranchTask> tasks = new ArrayList<BranchTask>();
+        extend(g, bonded, monovalent, results, tasks);
+        for (BranchTask task : tasks) {
+            this.pool.execute(task);
+        }
+        for (BranchTask task : tasks) {
+            task.join();
+            results.addAll(task.results);
+        }
+    }
+
+    /**
+     * Search in place from g, which is left as it was.
+     *
+     * @param g the graph
+     * @param bonded the atoms bonded to each atom, kept in step with g
+     * @param monovalent the atoms with a valence of one
+     * @param results the list to add the results to
+     * @param branches if not null, the canonical children of g are added to
+     *        this as tasks, instead of being searched
+     */
+    private void extend(SimpleGraph g, BitSet[] bonded, BitSet monovalent,
+            List<IMolecule> results, List<BranchTask> branches) {
+        if (isComplete(g)) {
+            results.add(new Molecule(g.getAtomContainer()));
+            return;
+        }
+        AdjacencyMatrix matrix = g.getMatrix();
+        int n = matrix.getAtomCount();
+        for (int i = matrix.nextUnsaturated(0);
+                i >= 0 && i < n - 1; i = matrix.nextUnsaturated(i + 1)) {
+            for (int j = nextPartner(matrix, bonded, monovalent, i, i + 1);
+                    j >= 0; 
+                    j = nextPartner(matrix, bonded, monovalent, i, j + 1)) {
+                bond(g, bonded, i, j);
+                if (CanonicalChecker.isCanonical(g.getMatrix())) {
+                    if (branches == null) {
+                        extend(g, bonded, monovalent, results, null);
+                    } else {
+                        branches.add(new BranchTask(
+                                new SimpleGraph(g), copy(bonded), monovalent));
                     }
                 }
+                unbond(g, bonded, i, j);
             }
         }
     }
-    
-    public boolean canBond(IAtomContainer container, int i, int j) {
-        IAtom aI = container.getAtom(i);
-        IAtom aJ = container.getAtom(j);
-        if (container.getBond(aI, aJ) != null) return false;
-        String aIs =  aI.getSymbol();
-        String aJs =  aJ.getSymbol();
-        return (aIs.equals("C") && (aJs.equals("C") || aJs.equals("H")))
-            || (aIs.equals("H") && aJs.equals("C"));
+
+    /**
+     * Find the next atom, from <code>from</code> on, that atom i can bond to :
+     * it must be unsaturated, not already bonded to i, and not monovalent if i
+     * is, as two monovalent atoms (like H-H) would make a separate fragment.
+     *
+     * @return the partner, or -1 if there are no more
+     */
+    private int nextPartner(AdjacencyMatrix matrix, 
+            BitSet[] bonded, BitSet monovalent, int i, int from) {
+        boolean isMonovalent = monovalent.get(i);
+        for (int j = matrix.nextUnsaturated(from);
+                j >= 0; j = matrix.nextUnsaturated(j + 1)) {
+            if (bonded[i].get(j)) continue;
+            if (isMonovalent && monovalent.get(j)) continue;
+            return j;
+        }
+        return -1;
+    }
+
+    private void bond(SimpleGraph g, BitSet[] bonded, int i, int j) {
+        g.bond(i, j);
+        bonded[i].set(j);
+        bonded[j].set(i);
+    }
+
+    private void unbond(SimpleGraph g, BitSet[] bonded, int i, int j) {
+        g.unbond(i, j);
+        bonded[i].clear(j);
+        bonded[j].clear(i);
     }
-    
-    public IAtomContainer makeCopy(IAtomContainer original) {
-        try {
-            return (IAtomContainer) original.clone();
-        } catch (CloneNotSupportedException c ){
-            return null;
+
+    private BitSet[] copy(BitSet[] bonded) {
+        BitSet[] copy = new BitSet[bonded.length];
+        for (int i = 0; i < bonded.length; i++) {
+            copy[i] = (BitSet) bonded[i].clone();
         }
+        return copy;
     }
-    
+
     public boolean isComplete(IAtomContainer container) {
         return Util.isConnected(container);
     }
 
+    private boolean isComplete(SimpleGraph g) {
+        return g.isConnected();
+    }
+
 }
@@ -5,32 +5,96 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
-import org.openscience.cdk.exception.CDKException;
-import org.openscience.cdk.graph.ConnectivityChecker;
-import org.openscience.cdk.interfaces.IAtom;
 import org.openscience.cdk.interfaces.IAtomContainer;
 import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+import org.openscience.cdk.nonotify.NoNotificationChemObjectBuilder;
 
 import signature.Orbit;
 import signature.Signature;
-import signature.Util;
 import utilities.CanonicalChecker;
+import utilities.EnumerationTracer;
 
 public class SimpleGraph {
 
 
+    /**
+     * Convenience instance of a builder
+     */
+    private static IChemObjectBuilder builder = 
+        NoNotificationChemObjectBuilder.getInstance();
+
     /**
      * The actual atom and bond data - may be disconnected fragments.
      */
-    private IAtomContainer atomContainer;
+    private AdjacencyMatrix matrix;
+    
+    /**
+     * The orbits of the current graph, sorted by first atom, or null if they
+     * have not been calculated since the graph last changed. The lists are
+     * never changed once made, so copies of the graph can share them.
+     */
+    private List<Orbit> orbits;
+    
+    /**
+     * The id of the search node that this graph is at, for tracing
+     */
+    private long traceId;
 
     /**
-     * Wrap an atom container in a graph, to manage the fragments
+     * Copy an atom container into a graph, to manage the fragments
      * 
-     * @param atomContainer the underlying atom container
+     * @param atomContainer the atom container to copy
      */
     public SimpleGraph(IAtomContainer atomContainer) {
-        this.atomContainer = atomContainer;
+        this(atomContainer, null);
+    }
+
+    /**
+     * Copy an atom container into a graph, with the given valence states.
+     * 
+     * @param atomContainer the atom container to copy
+     * @param valences the valence of each atom, or null for the standard ones
+     */
+    public SimpleGraph(IAtomContainer atomContainer, int[] valences) {
+        this.matrix = new AdjacencyMatrix(getSymbols(atomContainer), valences);
+        for (IBond bond : atomContainer.bonds()) {
+            this.matrix.addBond(
+                    atomContainer.getAtomNumber(bond.getAtom(0)),
+                    atomContainer.getAtomNumber(bond.getAtom(1)),
+                    bond.getOrder().ordinal() + 1);
+        }
+    }
+
+    /**
+     * Make a graph for each way of putting the atoms of a container into the
+     * valence states of their elements, standard states first. Those with an
+     * odd total valence are left out, as no bond changes the parity, so they
+     * can never be saturated.
+     * 
+     * @param atomContainer the atom container to copy
+     * @return the graphs
+     * @see AdjacencyMatrix#getValenceStates(String[])
+     */
+    public static List<SimpleGraph> forValenceStates(
+            IAtomContainer atomContainer) {
+        List<SimpleGraph> graphs = new ArrayList<SimpleGraph>();
+        String[] symbols = getSymbols(atomContainer);
+        for (int[] valences : AdjacencyMatrix.getValenceStates(symbols)) {
+            SimpleGraph g = new SimpleGraph(atomContainer, valences);
+            if (g.getMatrix().hasEvenValence()) {
+                graphs.add(g);
+            }
+        }
+        return graphs;
+    }
+    
+    private static String[] getSymbols(IAtomContainer atomContainer) {
+        String[] symbols = new String[atomContainer.getAtomCount()];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = atomContainer.getAtom(i).getSymbol();
+        }
+        return symbols;
     }
 
     /**
@@ -39,19 +103,45 @@ public class SimpleGraph {
      * @param g the graph to copy
      */
     public SimpleGraph(SimpleGraph g) {
-        // For now, clone the whole atom container, to make sure.
-        // In theory, it might be possible to just copy over atom references
-        // and clone the bonds
-        try {
-            this.atomContainer = (IAtomContainer) g.atomContainer.clone();
-           
-        } catch (CloneNotSupportedException c) {
-
-        }
+        this.matrix = new AdjacencyMatrix(g.matrix);
+        this.orbits = g.orbits;
+        this.traceId = g.traceId;
     }
     
+    /**
+     * @return the id of the search node this graph is at; 0 for the initial 
+     *         graph, or if the search is not being traced
+     */
+    public long getTraceId() {
+        return this.traceId;
+    }
+    
+    public void setTraceId(long traceId) {
+        this.traceId = traceId;
+    }
+    
+    public AdjacencyMatrix getMatrix() {
+        return this.matrix;
+    }
+    
+    /**
+     * Make a new atom container with the atoms and bonds of this graph. This
+     * is not cheap, so should only be done for finished structures.
+     * 
+     * @return a new atom container
+     */
     public IAtomContainer getAtomContainer() {
-        return this.atomContainer;
+        IAtomContainer atomContainer = builder.newAtomContainer();
+        for (int i = 0; i < matrix.getAtomCount(); i++) {
+            atomContainer.addAtom(builder.newAtom(matrix.getElementSymbol(i)));
+        }
+        for (int i = 0; i < matrix.getBondCount(); i++) {
+            atomContainer.addBond(
+                    matrix.getBondAtom(i, 0), 
+                    matrix.getBondAtom(i, 1),
+                    IBond.Order.values()[matrix.getBondOrder(i) - 1]);
+        }
+        return atomContainer;
     }
 
     /**
@@ -61,27 +151,38 @@ public class SimpleGraph {
      * @return true if this atom is saturated
      */
     public boolean isSaturated(int atomNumber) {
-        IAtom atom = this.atomContainer.getAtom(atomNumber);
-        try {
-            //                return Util.getInstance().getChecker().isSaturated(
-            //                            atom, atomContainer);
-            return Util.isSaturated(atom, atomContainer);
-        } catch (CDKException c) {
-            c.printStackTrace();
-            return false;
-        }
+        return this.matrix.isSaturated(atomNumber);
     }
 
     public boolean check(int x, int y) {
-        boolean sSubgraphs = Util.saturatedSubgraph(x, atomContainer);
+        return check(x, y, null);
+    }
+    
+    /**
+     * Check the graph after bonding x and y, reporting any rejection. The
+     * cheap tests - saturated subgraphs, then the valence bounds - are done
+     * first, so that the canonicity test only runs on graphs that could
+     * still lead to a solution.
+     * 
+     * @param x the atom being saturated
+     * @param y the atom it was bonded to
+     * @param tracer the tracer to report to, or null
+     * @return true if the graph passes all the tests
+     */
+    public boolean check(int x, int y, EnumerationTracer tracer) {
+        boolean sSubgraphs = matrix.isSaturatedSubgraph(x);
         if (sSubgraphs) {
-            System.out.println("saturated subgraphs");
+            if (tracer != null) tracer.saturatedSubgraphRejected(this, x, y);
             return false;
         }
-        boolean canon = CanonicalChecker.isCanonicalComplete(atomContainer);
-//        boolean canon = CanonicalChecker.isCanonicalTotal(atomContainer);
+        if (!matrix.isFeasible(x, y)) {
+            if (tracer != null) tracer.boundRejected(this, x, y);
+            return false;
+        }
+        boolean canon = CanonicalChecker.isCanonicalComplete(matrix);
+//        boolean canon = CanonicalChecker.isCanonicalTotal(matrix);
         if (!canon) {
-            System.out.println("!canon");
+            if (tracer != null) tracer.canonicityRejected(this, x, y);
             //            continue;
             return false;
         }
@@ -94,30 +195,44 @@ public class SimpleGraph {
      * @return true if there is a path from any atom to any other atom
      */
     public boolean isConnected() {
-        int numberOfAtoms = atomContainer.getAtomCount();
-        int numberOfBonds = atomContainer.getBondCount();
+        return this.matrix.isConnected();
+    }
     
-        // n atoms connected into a simple chain have (n - 1) bonds
-        return numberOfBonds >= (numberOfAtoms - 1) 
-        && ConnectivityChecker.isConnected(atomContainer);
+    /**
+     * Get the orbits of the graph in its current state, sorted by their first
+     * atom. They are calculated once, and then only again after a bond has
+     * been changed. 
+     * 
+     * @return the sorted orbits, which must not be modified
+     */
+    private List<Orbit> getOrbits() {
+        if (this.orbits == null) {
+            Signature signature = new Signature(this.matrix);
+            List<Orbit> calculated = signature.calculateOrbits();
+//            Collections.reverse(calculated);
+            sort(calculated);
+            this.orbits = calculated;
+        }
+        return this.orbits;
     }
     
+    /**
+     * Get the first orbit with unsaturated atoms.
+     * 
+     * @return a copy of the orbit, that the caller is free to change
+     */
     public Orbit getUnsaturatedOrbit() {
-        Signature signature = new Signature(this.atomContainer);
-        List<Orbit> orbits = signature.calculateOrbits();
-//        Collections.reverse(orbits);
-        sort(orbits);
-        for (Orbit o : orbits) {
+        for (Orbit o : getOrbits()) {
             if (isSaturated(o)) {
                 continue;
             } else {
-                return o;
+                return (Orbit) o.clone();
             }
         }
         return null;
     }
     
-    private void sort(List<Orbit> orbits) {
+    private static void sort(List<Orbit> orbits) {
         for (Orbit o : orbits) {
             o.sort();
         }
@@ -137,16 +252,8 @@ public class SimpleGraph {
      * @return a list of atom indices
      */
     public List<Integer> unsaturatedAtoms() {
-        Signature signature = new Signature(this.atomContainer);
-        List<Orbit> orbits = signature.calculateOrbits();
-
-        // XXX : fix this
-//        Collections.reverse(orbits);
-        sort(orbits);
-        
-        System.out.println("Orbits : " + orbits);
         List<Integer> unsaturated = new ArrayList<Integer>();
-        for (Orbit o : orbits) {
+        for (Orbit o : getOrbits()) {
             if (o.isEmpty() || isSaturated(o)) continue;
             unsaturated.add(o.getFirstAtom());
         }
@@ -164,45 +271,43 @@ public class SimpleGraph {
      * 
      * @param x the first atom to be bonded
      * @param y the second atom to be bonded
+     * @return false if the bond was already triple, and nothing changed
      */
-    public void bond(int x, int y) {
-        System.out.println(
-                String.format("bonding %d and %d (%s-%s)",
-                        x, y, 
-                        atomContainer.getAtom(x).getSymbol(),
-                        atomContainer.getAtom(y).getSymbol()));
-        IAtom a = atomContainer.getAtom(x);
-        IAtom b = atomContainer.getAtom(y);
-        IBond existingBond = this.atomContainer.getBond(a, b);
-        if (existingBond != null) {
-            IBond.Order o = existingBond.getOrder(); 
-            if (o == IBond.Order.SINGLE) {
-                existingBond.setOrder(IBond.Order.DOUBLE);
-            } else if (o == IBond.Order.DOUBLE) {
-                existingBond.setOrder(IBond.Order.TRIPLE);
-            }
+    public boolean bond(int x, int y) {
+        if (this.matrix.bond(x, y)) {
+            this.orbits = null;
+            return true;
         } else {
-            atomContainer.addBond(x, y, IBond.Order.SINGLE);
+            return false;
         }
     }
+    
+    /**
+     * Undo the most recent successful call to bond(x, y).
+     * 
+     * @param x the first atom of the bond
+     * @param y the second atom of the bond
+     */
+    public void unbond(int x, int y) {
+        this.matrix.unbond(x, y);
+        this.orbits = null;
+    }
 
     public String toString() {
         StringBuffer sb = new StringBuffer();
-        int i = 0;
-        for (IAtom atom : this.atomContainer.atoms()) {
-            sb.append(atom.getSymbol()).append(i);
-            i++;
+        for (int i = 0; i < this.matrix.getAtomCount(); i++) {
+            sb.append(this.matrix.getSymbol(i)).append(i);
         }
         sb.append(" { ");
-        for (IBond bond : this.atomContainer.bonds()) {
-            int l = this.atomContainer.getAtomNumber(bond.getAtom(0));
-            int r = this.atomContainer.getAtomNumber(bond.getAtom(1));
+        for (int b = 0; b < this.matrix.getBondCount(); b++) {
+            int l = this.matrix.getBondAtom(b, 0);
+            int r = this.matrix.getBondAtom(b, 1);
             if (l < r) {
                 sb.append(l).append("-").append(r);
             } else {
                 sb.append(r).append("-").append(l);
             }
-            int o = bond.getOrder().ordinal() + 1;
+            int o = this.matrix.getBondOrder(b);
             sb.append("(").append(o).append(") ");
         }
         sb.append("} ");
@@ -213,14 +318,7 @@ public class SimpleGraph {
     }
 
     public boolean isFullySaturated() {
-        for (int i = 0; i < this.atomContainer.getAtomCount(); i++) {
-            if (isSaturated(i)) {
-                continue;
-            } else {
-                return false;
-            }
-        }
-        return true;
+        return this.matrix.isFullySaturated();
     }
 
 
@@ -44,7 +44,8 @@ public class OutlineTreePanel extends JPanel
     }
     
     public void bondAdded(BondCreationEvent bondCreationEvent) {
-        this.tree.addNode(bondCreationEvent.parent, bondCreationEvent.child);
+        this.tree.addNode(
+                bondCreationEvent.getParent(), bondCreationEvent.getChild());
     }
     
     public void mouseClicked(MouseEvent e) {
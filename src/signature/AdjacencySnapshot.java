@@ -0,0 +1,98 @@
+package signature;
+
+import java.util.Arrays;
+
+/**
+ * A copy of the connections of a graph, taken once so that the DAGs for all
+ * the atoms of a signature can be built without going back to the graph.
+ * The neighbours of each atom are kept in compressed sparse row form : the
+ * neighbours of atom i are <code>neighbours[start[i]]</code> up to (but not
+ * including) <code>neighbours[start[i + 1]]</code>, in the same order as
+ * {@link IAtomGraph#getConnected}, with the order of each bond alongside in
+ * <code>orders</code>.
+ *
+ * Reading an IAtomContainer means a scan of its atoms or bonds for each
+ * query, so this saves those scans for all but the first time. Nothing here
+ * changes after it is made, so a snapshot can be shared between threads.
+ *
+ * @author maclean
+ *
+ */
+class AdjacencySnapshot {
+
+    final int atomCount;
+
+    final int[] start;
+
+    final int[] neighbours;
+
+    final int[] orders;
+
+    final boolean[] aromatic;
+
+    /**
+     * The different atom types of the graph, in string order - the rank of
+     * the type of each atom is kept in typeRanks
+     */
+    final String[] types;
+
+    final int[] typeRanks;
+
+    public AdjacencySnapshot(IAtomGraph graph) {
+        this.atomCount = graph.getAtomCount();
+        this.start = new int[atomCount + 1];
+        this.aromatic = new boolean[atomCount];
+        int[][] connected = new int[atomCount][];
+        for (int i = 0; i < atomCount; i++) {
+            connected[i] = graph.getConnected(i);
+            this.start[i + 1] = this.start[i] + connected[i].length;
+            this.aromatic[i] = graph.isAromatic(i);
+        }
+        this.neighbours = new int[start[atomCount]];
+        this.orders = new int[start[atomCount]];
+        for (int i = 0; i < atomCount; i++) {
+            int k = start[i];
+            for (int j : connected[i]) {
+                this.neighbours[k] = j;
+                this.orders[k] = graph.getBondOrder(i, j);
+                k++;
+            }
+        }
+
+        // rank the types of the atoms in string order
+        String[] symbols = new String[atomCount];
+        for (int i = 0; i < atomCount; i++) {
+            symbols[i] = graph.getSymbol(i);
+        }
+        String[] sorted = symbols.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < atomCount; i++) {
+            if (distinct == 0 || !sorted[i].equals(sorted[distinct - 1])) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        this.types = Arrays.copyOf(sorted, distinct);
+        this.typeRanks = new int[atomCount];
+        for (int i = 0; i < atomCount; i++) {
+            this.typeRanks[i] = Arrays.binarySearch(this.types, symbols[i]);
+        }
+    }
+
+    public int getDegree(int atomNumber) {
+        return start[atomNumber + 1] - start[atomNumber];
+    }
+
+    /**
+     * @param atomA the index of one atom
+     * @param atomB the index of the other atom
+     * @return the bond order, or 0 if the atoms are not bonded
+     */
+    public int getBondOrder(int atomA, int atomB) {
+        for (int k = start[atomA]; k < start[atomA + 1]; k++) {
+            if (neighbours[k] == atomB) return orders[k];
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,81 @@
+package signature;
+
+import java.util.List;
+
+import org.openscience.cdk.CDKConstants;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+
+/**
+ * Read an IAtomContainer through the {@link IAtomGraph} interface. Nothing is
+ * copied, so changes to the container are seen immediately.
+ *
+ * @author maclean
+ *
+ */
+public class AtomContainerGraph implements IAtomGraph {
+
+    private IAtomContainer container;
+
+    public AtomContainerGraph(IAtomContainer container) {
+        this.container = container;
+    }
+
+    public IAtomContainer getAtomContainer() {
+        return this.container;
+    }
+
+    public int getAtomCount() {
+        return this.container.getAtomCount();
+    }
+
+    public int getBondCount() {
+        return this.container.getBondCount();
+    }
+
+    public String getSymbol(int atomNumber) {
+        return this.container.getAtom(atomNumber).getSymbol();
+    }
+
+    public int getBondAtom(int bondNumber, int position) {
+        IBond bond = this.container.getBond(bondNumber);
+        return this.container.getAtomNumber(bond.getAtom(position));
+    }
+
+    public int getBondOrder(int bondNumber) {
+        return this.container.getBond(bondNumber).getOrder().ordinal() + 1;
+    }
+
+    public int getBondOrder(int atomA, int atomB) {
+        IAtom a = this.container.getAtom(atomA);
+        IAtom b = this.container.getAtom(atomB);
+        IBond bond = this.container.getBond(a, b);
+        if (bond == null) {
+            return 0;
+        } else {
+            return bond.getOrder().ordinal() + 1;
+        }
+    }
+
+    public int getDegree(int atomNumber) {
+        return this.container.getConnectedBondsCount(atomNumber);
+    }
+
+    public int[] getConnected(int atomNumber) {
+        IAtom atom = this.container.getAtom(atomNumber);
+        List<IAtom> connected = this.container.getConnectedAtomsList(atom);
+        int[] connectedNumbers = new int[connected.size()];
+        for (int i = 0; i < connectedNumbers.length; i++) {
+            connectedNumbers[i] =
+                this.container.getAtomNumber(connected.get(i));
+        }
+        return connectedNumbers;
+    }
+
+    public boolean isAromatic(int atomNumber) {
+        return this.container.getAtom(
+                atomNumber).getFlag(CDKConstants.ISAROMATIC);
+    }
+
+}
@@ -6,70 +6,98 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 
-import org.openscience.cdk.CDKConstants;
-import org.openscience.cdk.interfaces.IAtom;
 import org.openscience.cdk.interfaces.IAtomContainer;
-import org.openscience.cdk.interfaces.IBond;
 
 /**
  * A directed acyclic graph - each vertex of the graph refers to an atom in a
  * molecule that is passed to the constructor.
  * 
+ * While it is being labelled, the signature is built as an array of int 
+ * codes, one for each token of the string : a bracket, a bond symbol, or a 
+ * vertex, which packs the atom type and the label. The codes are compared 
+ * so that they sort exactly as the strings would, and a string is only made
+ * when it is asked for.
+ * 
  * @author maclean
  *
  */
 public class DAG implements Iterable<ArrayList<Vertex>> {
     
     /**
-     * Small class used to bucket-sort (sometimes called radix sort)
-     * values in a layer
-     */
-    private class Bucket {
-        public double x;
-        public int y;
-        public int z;
-        public String toString() { 
-            return String.format("(%6.0f, %d, %d)", x, y, z);
-        }
-    }
-    
-    /**
-     * Used for sorting the double-valued invariants
-     *
-     */
-    private class cmp_invariant implements Comparator<Double> {
-        public int compare(Double a, Double b) {
-            if (a.doubleValue() + EPS6 < b.doubleValue()) return 1;
-            if (a.doubleValue() - EPS6 > b.doubleValue()) return -1;
-            return 0;
-        }
-    }
-    private cmp_invariant cmp_invariant_instance = new cmp_invariant();
-    
-    /**
-     * Used for bucket-sorting the vertices by their invariants
-     *
+     * The arrays used while building and labelling a DAG, kept so that the
+     * DAGs for each atom of a graph can be made one after another without
+     * allocating them again. The labels of a DAG made with a workspace are 
+     * only valid until the next DAG is made with it, and a workspace must 
+     * not be used by more than one thread at once.
      */
-    private class cmp_invar implements Comparator<Bucket> {
-
-        public int compare(Bucket a, Bucket b) {
-            if (a == null || b == null) return 0;
-            if (a.x + EPS6 < b.x) return 1;
-            if (a.x - EPS6 > b.x) return -1;
-            return 0;
-        }
+    static class Workspace {
+        
+        private AdjacencySnapshot graph;
+        
+        private int[] occur;
+        
+        private int[] color;
+        
+        private int[] label;
+        
+        private int[] maxLabels;
+        
+        private int[] currentLabels;
+        
+        private int[] codes;
         
+        private Vertex[] inLayer;
+        
+        /**
+         * The order of the atoms, and space for sorting it, when ranking 
+         * their invariants
+         */
+        private int[] order;
+        
+        private int[] sorted;
+        
+        private int[] counts;
+        
+        /**
+         * The invariant of the vertex for each atom in each layer
+         */
+        private int[] layerInvariants;
+        
+        /**
+         * The digits of the invariants of the vertices in a layer
+         */
+        private int[] keys;
+        
+        private int[] values;
+        
+        public Workspace(AdjacencySnapshot graph) {
+            int size = graph.atomCount;
+            this.graph = graph;
+            this.occur = new int[size];
+            this.color = new int[size];
+            this.label = new int[size];
+            this.maxLabels = new int[size];
+            this.currentLabels = new int[size];
+            this.codes = new int[4 * size + 1];
+            this.inLayer = new Vertex[size];
+            this.order = new int[size];
+            this.sorted = new int[size];
+            this.counts = new int[size + 1];
+            this.layerInvariants = new int[size];
+            this.keys = new int[8];
+            this.values = new int[8];
+        }
     }
-    private cmp_invar cmp_invar_instance = new cmp_invar();
     
     /**
-     * Used for sorting the vertices by their invariants
+     * Used for sorting the vertices by their invariants, largest first
      *
      */
     private class cmp_vertex_invariant implements Comparator<Vertex> {
         public int compare(Vertex a, Vertex b) {
-           return cmp_invariant_instance.
-           compare(new Double(a.invariant), new Double(b.invariant));
+            if (a.invariant < b.invariant) return 1;
+            if (a.invariant > b.invariant) return -1;
+            return 0;
         }
     }
     private cmp_vertex_invariant 
@@ -77,7 +105,8 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
     
     /**
      * Used for sorting vertices first by their string form, THEN
-     * by thier invariants
+     * by thier invariants - while a layer is being ranked, the invariant of 
+     * each vertex is the slot of its key in the keys of the layer
      */
     private class cmp_vertex_invariant_element implements Comparator<Vertex> {
 
@@ -85,11 +114,13 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
             if (a == null && b == null) return 0;
             if (a == null) return 1;
             if (b == null) return -1;
-            int r = -(a.element.compareTo(b.element));
+            int r = -(compareVertexCodes(
+                    vertexCode(a.atomNumber, a.label), 
+                    vertexCode(b.atomNumber, b.label)));
             if (r != 0) { 
                 return r;
             } else {
-                return cmp_vertex_invariant_instance.compare(a, b);
+                return -compareKeys(a.invariant, b.invariant);
             }
         }
     }
@@ -97,15 +128,32 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
         = new cmp_vertex_invariant_element();
     
     /**
-     * A tolerance factor used when sorting double values
+     * Codes at or above this are vertices; below it, they are the character
+     * of a bracket or bond symbol
      */
-    private static final double EPS6 = 1E-5;
-
+    private static final int VERTEX_CODE = 0x40000000;
+    
+    /**
+     * The number of bits for the label in a vertex code
+     */
+    private static final int LABEL_BITS = 20;
+    
+    /**
+     * The different atom types of the graph, in string order - the rank of
+     * the type of each atom is kept in typeRanks
+     */
+    private String[] types;
+    
+    private int[] typeRanks;
+    
+    private Workspace workspace;
+    
     /**
-     * Used to re-scale for certain unusual graphs, such as those
-     * with a high vertex degree.
+     * The codes of the signature being printed
      */
-    private static final double POWMAX = 10E30;
+    private int[] codes;
+    
+    private int codeCount;
     
     private ArrayList<ArrayList<Vertex>> layers;
     
@@ -128,9 +176,9 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
      * added as a temporary hack to get the most recently created string
      * TODO : refactor this to not be a global!
      */
-    private String SCURRENT;
+    private int[] SCURRENT;
     
-    private String SMAX;
+    private int[] SMAX;
     
     /**
      * When canonically labelling, this the current value of the label
@@ -139,14 +187,19 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
     
     private int LARGEST_LABEL;
     
-    private static final double VALENCE = 4;
+    private static final int VALENCE = 4;
     
     /**
      * The maximum height of the most recently calculated atom signature
      */
     private int maxHeight;
     
-    private IAtomContainer container;
+    /**
+     * The number of digits in each key of the layer being ranked
+     */
+    private int keyLength;
+    
+    private AdjacencySnapshot graph;
 
     /**
      * Construct the DAG (directed acyclic graph) rooted at this atom number.
@@ -156,33 +209,63 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
      * @param h the height to build it to
      */
     public DAG(IAtomContainer container, int atomNumber, int h) {
-        this.container = container;
-        this.SIZE = container.getAtomCount();
+        this(new AtomContainerGraph(container), atomNumber, h);
+    }
+    
+    /**
+     * Construct the DAG rooted at this atom number of a graph.
+     *
+     * @param graph the graph to refer to
+     * @param atomNumber
+     * @param h the height to build it to
+     */
+    public DAG(IAtomGraph graph, int atomNumber, int h) {
+        this(new Workspace(new AdjacencySnapshot(graph)), atomNumber, h);
+    }
+    
+    /**
+     * Construct the DAG rooted at this atom number, using the snapshot of a
+     * graph and the arrays of a workspace.
+     * 
+     * @param workspace the workspace, which holds the graph snapshot
+     * @param atomNumber
+     * @param h the height to build it to
+     */
+    DAG(Workspace workspace, int atomNumber, int h) {
+        this.workspace = workspace;
+        this.graph = workspace.graph;
+        this.SIZE = graph.atomCount;
         this.MAX_COLOR = this.SIZE;
-        assert atomNumber <= this.container.getAtomCount();
+        assert atomNumber <= this.SIZE;
         assert h >= 0;
         
         layers = new ArrayList<ArrayList<Vertex>>();
+        this.types = graph.types;
+        this.typeRanks = graph.typeRanks;
         
-        ArrayList<Edge> E = new ArrayList<Edge>();
-        Vertex root = new Vertex(atomNumber, "", 1);
+        EdgeSet E = new EdgeSet(SIZE);
+        Vertex root = new Vertex(atomNumber, 1);
         ArrayList<Vertex> rootLayer = new ArrayList<Vertex>();
         rootLayer.add(root);
         layers.add(rootLayer);
         if (h < 1) return;
         
-        buildLayer(rootLayer, E, h - 1);
-        this.OCCUR = new int[SIZE];
-        this.COLOR = new int[SIZE];
-        int[] LABEL = new int[SIZE];
-        this.maxLabels = new int[SIZE];
-        this.currentLabels = new int[SIZE];
+        buildLayer(rootLayer, E, workspace.inLayer, h - 1);
+        this.OCCUR = workspace.occur;
+        this.COLOR = workspace.color;
+        int[] LABEL = workspace.label;
+        this.maxLabels = workspace.maxLabels;
+        this.currentLabels = workspace.currentLabels;
+        this.codes = workspace.codes;
         for (int i = 0; i < SIZE; i++) {
             OCCUR[i] = COLOR[i] = 0;
             LABEL[i] = maxLabels[i] = currentLabels[i] = -1;
         }
-        double[] invariants = this.initialInvariants();
+        int[] invariants = this.initialInvariants();
         computeLabelInvariant(h, LABEL, OCCUR, invariants, 0);
+        
+        // keep the code buffer, if it had to grow
+        workspace.codes = this.codes;
     }
     
     public Iterator<ArrayList<Vertex>> iterator() {
@@ -206,7 +289,8 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
     }
 
     public String getSMAX() {
-        return this.SMAX;
+        if (this.SMAX == null) return null;
+        return toSignatureString(this.SMAX);
     }
     
     public int getMaxHeight() {
@@ -218,8 +302,23 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
     }
     
     public String getBestSignatureString() {
+        int[] best = getBestSignatureCodes();
+        if (best == null) {
+            // a DAG of height 0 is never labelled
+            return null;
+        }
+        return toSignatureString(best);
+    }
+    
+    /**
+     * The codes of the best signature, which can be compared with the codes 
+     * from other DAGs of the same graph using {@link #compareCodes}.
+     * 
+     * @return the codes, which must not be changed
+     */
+    public int[] getBestSignatureCodes() {
         if (SMAX != null) {
-            if (SMAX.compareTo(SCURRENT) < 1) {
+            if (compareCodes(SMAX, SCURRENT) < 1) {
                 return SMAX;
             } else {
                 return SCURRENT;
@@ -229,11 +328,137 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
         }    
     }
     
+    /**
+     * Compare two signatures, as codes, in the same order as their strings.
+     * Both must come from DAGs of the same graph, so that the atom types have
+     * the same ranks.
+     * 
+     * @param a the codes of one signature
+     * @param b the codes of another signature
+     * @return less than, equal to, or greater than zero, as for strings
+     */
+    public static int compareCodes(int[] a, int[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            if (a[i] == b[i]) continue;
+            boolean aIsVertex = a[i] >= VERTEX_CODE;
+            boolean bIsVertex = b[i] >= VERTEX_CODE;
+            if (aIsVertex && bIsVertex) {
+                return compareVertexCodes(a[i], b[i]);
+            }
+            
+            // a vertex is printed starting with '['
+            int charA = aIsVertex ? '[' : a[i];
+            int charB = bIsVertex ? '[' : b[i];
+            if (charA != charB) return charA - charB;
+        }
+        return a.length - b.length;
+    }
+    
+    /**
+     * Compare two vertex codes as their strings - "[type,label]" or "[type]"
+     * - would compare. Types are compared by rank; a shorter type that is a
+     * prefix of a longer one (like "C" and "Cl") is followed by ',' or ']',
+     * which come before any lower-case letter, so the rank order is right. 
+     * A vertex with a label comes before the same type without one, as ',' 
+     * comes before ']', and labels compare as decimal strings.
+     */
+    private static int compareVertexCodes(int a, int b) {
+        int typeA = (a - VERTEX_CODE) >>> LABEL_BITS;
+        int typeB = (b - VERTEX_CODE) >>> LABEL_BITS;
+        if (typeA != typeB) return typeA - typeB;
+        int labelA = (a & ((1 << LABEL_BITS) - 1)) - 1;
+        int labelB = (b & ((1 << LABEL_BITS) - 1)) - 1;
+        if (labelA == labelB) return 0;
+        if (labelA == -1) return 1;
+        if (labelB == -1) return -1;
+        return compareDecimal(labelA, labelB);
+    }
+    
+    /**
+     * Compare the decimal strings of two labelled vertices, without making 
+     * them; so "[C,10]" comes before "[C,9]", and also before "[C,1]", as in
+     * the strings.
+     */
+    private static int compareDecimal(int a, int b) {
+        int digitsA = digits(a);
+        int digitsB = digits(b);
+        
+        // compare the numbers cut to the same number of digits
+        int shortA = a;
+        int shortB = b;
+        for (int i = digitsA; i > digitsB; i--) shortA /= 10;
+        for (int i = digitsB; i > digitsA; i--) shortB /= 10;
+        if (shortA != shortB) return shortA - shortB;
+        
+        // one is a prefix of the other, and the shorter is followed by ']', 
+        // which comes after any digit
+        return digitsB - digitsA;
+    }
+    
+    private static int digits(int x) {
+        int digits = 1;
+        while (x >= 10) {
+            x /= 10;
+            digits++;
+        }
+        return digits;
+    }
+    
+    /**
+     * @param atomNumber an atom
+     * @param label the label printed with it, or -1 for none
+     * @return the code for a vertex with this atom and label
+     */
+    private int vertexCode(int atomNumber, int label) {
+        return DAG.makeVertexCode(typeRanks[atomNumber], label);
+    }
+    
+    /**
+     * @param typeRank the rank of the atom type among the types of the graph
+     * @param label the label printed with the vertex, or -1 for none
+     * @return the code for a vertex, as used by {@link #compareCodes}
+     */
+    public static int makeVertexCode(int typeRank, int label) {
+        return VERTEX_CODE + (typeRank << LABEL_BITS) + (label + 1);
+    }
+    
+    /**
+     * Make the string of a signature from its codes.
+     * 
+     * @param codes the codes of a signature from this DAG
+     * @return the signature string
+     */
+    public String toSignatureString(int[] codes) {
+        StringBuffer sb = new StringBuffer();
+        for (int code : codes) {
+            if (code >= VERTEX_CODE) {
+                int type = (code - VERTEX_CODE) >>> LABEL_BITS;
+                int label = (code & ((1 << LABEL_BITS) - 1)) - 1;
+                sb.append("[").append(types[type]);
+                if (label != -1) {
+                    sb.append(",").append(label);
+                }
+                sb.append("]");
+            } else {
+                sb.append((char) code);
+            }
+        }
+        return sb.toString();
+    }
+    
+    private void addCode(int code) {
+        if (codeCount == codes.length) {
+            codes = Arrays.copyOf(codes, 2 * codes.length);
+        }
+        codes[codeCount++] = code;
+    }
+    
     /**
      * Determine the initial invariants using the parents of each vertex.
      * 
      */
-    private double[] initialInvariants() {
+    private int[] initialInvariants() {
         
         /* (coment copied from c source)
          * vertices with degree 1 have OCC = 1 
@@ -249,7 +474,7 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
                 k++;
             }
             for (Vertex vertex : layer) {
-                int degree = container.getConnectedBondsCount(vertex.atomNumber); 
+                int degree = graph.getDegree(vertex.atomNumber);
                 if (degree < 2) {
                     OCCUR[vertex.atomNumber] = COLOR[vertex.atomNumber] = 1;
                 } else {
@@ -260,11 +485,7 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
                 }
             }
         }
-        double[] invariants = new double[this.SIZE];
-        for (int i = 0; i < this.SIZE; i++) {
-            invariants[i] = (double) OCCUR[i];
-        }
-        return invariants;
+        return Arrays.copyOf(OCCUR, SIZE);
     }
     
     /**
@@ -278,7 +499,7 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
      * @param ITER the current iteration (TODO : remove)
      */
     private void computeLabelInvariant(
-            int h, int[] LAB, int[] OCC, double[] INV, int ITER) {
+            int h, int[] LAB, int[] OCC, int[] INV, int ITER) {
         int L0 = -1;
         int omax = 1;
         int imax = -1;
@@ -286,7 +507,7 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
         
         int[] label = new int[SIZE];
         int[] occur = new int[SIZE];
-        double[] invar = new double[SIZE];
+        int[] invar = new int[SIZE];
         
         for (int i = 0; i < SIZE; i++) {
             label[i] = LAB[i]; invar[i] = INV[i]; occur[i] = OCC[i];
@@ -324,7 +545,7 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
                         && ((occur[vertex.atomNumber] > omax)
                                 && invar[vertex.atomNumber] > inv)) {
                     imax = vertex.atomNumber;
-                    inv = (int)invar[imax];
+                    inv = invar[imax];
                     omax = occur[imax];
                 }
             }
@@ -353,6 +574,13 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
      * depending on the value of the relation parameter. If this is 'parent',
      * go down - otherwise go up.  
      * 
+     * The new invariant of an atom is the number whose digits (in base K, 
+     * one more than the largest invariant) are its old invariant and then 
+     * the invariant of its vertex in each layer, the deepest layer being the 
+     * most significant. Each atom has at most one vertex in a layer, so 
+     * every digit is less than K, and the atoms are ranked exactly by a 
+     * counting sort on each digit in turn, from the least significant.
+     * 
      * @param h the height
      * @param LAB the labels
      * @param OCC the occurrences
@@ -361,7 +589,7 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
      * @return the maximum invariant after ranking
      */
     private int computeInvariant(int h,
-            int[] LAB, int[] OCC, double[] INV, String relation) {
+            int[] LAB, int[] OCC, int[] INV, String relation) {
         int l0;
         int ln;
         int li;
@@ -380,15 +608,21 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
             computeLayerInvariant(this.get(l), LAB, INV, relation);
         }
         
-        // find K, the maximum invariant for nodes and atoms
-        double K = 0;
-        double n = 0;
-        for (ArrayList<Vertex> layer : this) {
-            n++;
-            for (Vertex vertex : layer) {
+        // find K, the maximum invariant for nodes and atoms, and note the
+        // invariant of the vertex for each atom in each layer
+        int layerCount = this.size();
+        if (workspace.layerInvariants.length < layerCount * SIZE) {
+            workspace.layerInvariants = new int[layerCount * SIZE];
+        }
+        int[] layerInvariants = workspace.layerInvariants;
+        Arrays.fill(layerInvariants, 0, layerCount * SIZE, 0);
+        int K = 0;
+        for (int l = 0; l < layerCount; l++) {
+            for (Vertex vertex : this.get(l)) {
                 if (vertex.invariant > K) {
-                    K = (double)vertex.invariant;
+                    K = vertex.invariant;
                 }
+                layerInvariants[l * SIZE + vertex.atomNumber] = vertex.invariant;
             }
         }
         for (int i = 0; i < SIZE; i++) {
@@ -398,81 +632,88 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
         }
         K = K + 1;
         
-        // rescale if necessary
-        double KK;
-        if (Math.pow(K, n) > POWMAX) {
-            KK = Math.pow(10.0, (10.0 / n));
-            for (int i = 0; i < SIZE; i++) {
-                INV[i] = INV[i] * KK / K;
-            }
-        } else {
-            KK = K;
-        }
-        
-        // compute new invariant for all atoms
-        n = 1;
-        for (ArrayList<Vertex> layer : this) {
-            n++;
-            for (Vertex vertex : layer) {
-                double invariant = vertex.invariant * (KK / K);
-                invariant *= Math.pow(KK, n);
-                INV[vertex.atomNumber] += invariant;
-            }
-        }
-        
-        /*
-         * sort and compute arry INV
-         * x is the inital invariant
-         * y is the new invariant
-         * z in the location in the new array
-         */
-        Bucket[] invar = new Bucket[SIZE];
+        // sort the atoms by their new invariants, largest first
+        int[] order = workspace.order;
         for (int i = 0; i < SIZE; i++) {
-            invar[i] = new Bucket();
-            invar[i].x = INV[i];
-            invar[i].y = invar[i].z = i;
+            order[i] = i;
+        }
+        sortByDigit(INV, 0, K);
+        for (int l = 0; l < layerCount; l++) {
+            sortByDigit(layerInvariants, l * SIZE, K);
         }
-        Arrays.sort(invar, this.cmp_invar_instance);
         
-        // rank the sorted buckets
-        invar[0].y = 1;
+        // rank the sorted atoms
+        int[] rank = workspace.sorted;
+        rank[0] = 1;
         int inv = 1;
         for (int i = 1; i < SIZE; i++) {
-            Bucket a = invar[i];
-            Bucket b = invar[i - 1];
-            if (this.cmp_invar_instance.compare(a, b) == 0) {
-                a.y = b.y;
+            if (sameInvariant(order[i], order[i - 1], INV, layerCount)) {
+                rank[i] = rank[i - 1];
             } else {
-                a.y = (++inv);
+                rank[i] = (++inv);
             }
         }
-        for (int i = 0; i < SIZE; i++) { INV[invar[i].z] = invar[i].y; }
+        for (int i = 0; i < SIZE; i++) { INV[order[i]] = rank[i]; }
         
-        // compute OCC
-        int nb = 1;
+        // compute OCC, the number of atoms with each invariant
         int i0 = 0;
-        for (int i = 1; i < SIZE; i++) {
-            if (invar[i].y == invar[i - 1].y) {
-                nb++;
-            } else {
-                for (int k = i0; k < i0 + nb; k++) {
-                    invar[k].x = nb;
+        for (int i = 1; i <= SIZE; i++) {
+            if (i == SIZE || rank[i] != rank[i - 1]) {
+                for (int k = i0; k < i; k++) {
+                    if (OCC[order[k]] > 1) {
+                        OCC[order[k]] = i - i0;
+                    }
                 }
-                nb = 1;
                 i0 = i;
             }
         }
-        for (int i = i0; i < SIZE; i++) {
-            invar[i].x = nb;
+        
+        return inv;
+    }
+    
+    /**
+     * Stable counting sort of the atoms in the workspace order, by one digit 
+     * of their invariants, largest first.
+     * 
+     * @param digits the digit for atom i is at <code>offset + i</code>
+     * @param offset the start of the digits
+     * @param K the base of the digits
+     */
+    private void sortByDigit(int[] digits, int offset, int K) {
+        if (workspace.counts.length < K) {
+            workspace.counts = new int[K];
+        }
+        int[] counts = workspace.counts;
+        int[] order = workspace.order;
+        int[] sorted = workspace.sorted;
+        Arrays.fill(counts, 0, K, 0);
+        for (int i = 0; i < SIZE; i++) {
+            counts[digits[offset + i]]++;
         }
         
+        // the start of each digit, counting down from the largest
+        int start = 0;
+        for (int d = K - 1; d >= 0; d--) {
+            int count = counts[d];
+            counts[d] = start;
+            start += count;
+        }
         for (int i = 0; i < SIZE; i++) {
-            if (OCC[invar[i].z] > 1) {
-                OCC[invar[i].z] = (int)invar[i].x;
+            int atom = order[i];
+            sorted[counts[digits[offset + atom]]++] = atom;
+        }
+        System.arraycopy(sorted, 0, order, 0, SIZE);
+    }
+    
+    private boolean sameInvariant(int a, int b, int[] INV, int layerCount) {
+        if (INV[a] != INV[b]) return false;
+        int[] layerInvariants = workspace.layerInvariants;
+        for (int l = 0; l < layerCount; l++) {
+            if (layerInvariants[l * SIZE + a] != layerInvariants[l * SIZE + b]) {
+                return false;
             }
         }
-        
-        return inv;
+        return true;
     }
     
     /**
@@ -484,14 +725,34 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
      * @param relation 'parent' or 'child'
      */
     private void computeLayerInvariant(
-            ArrayList<Vertex> layer, int[] LAB, double[] INV, String relation) {
+            ArrayList<Vertex> layer, int[] LAB, int[] INV, String relation) {
+        boolean useChildren = relation.equals("child");
+        int most = 0;
+        for (Vertex vertex : layer) {
+            int n = useChildren? vertex.children.size() : vertex.parents.size();
+            if (n > most) {
+                most = n;
+            }
+        }
+        
+        // room for a digit for each neighbour and bond, the digit of the
+        // atom invariant, and any carry from that
+        this.keyLength = 2 * most + 4;
+        if (workspace.keys.length < layer.size() * keyLength) {
+            workspace.keys = new int[layer.size() * keyLength];
+        }
+        if (workspace.values.length < 2 * most) {
+            workspace.values = new int[2 * most];
+        }
+        int slot = 0;
         for (Vertex vertex : layer) {
-            computeVertexInvariant(vertex, LAB, INV, relation);
+            computeVertexInvariant(vertex, slot, LAB, INV, useChildren);
+            slot++;
         }
         
         Collections.sort(layer, this.cmp_vertex_invariant_element_instance);
         
-        double[] invar = new double[layer.size() + 1];
+        int[] invar = new int[layer.size() + 1];
         invar[0] = 1;
         
         int inv = 1;
@@ -512,7 +773,7 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
         }
         i = 0;
         for (Vertex vertex : layer) {
-            vertex.invariant = (int)invar[i];
+            vertex.invariant = invar[i];
             i++;
         }
         
@@ -521,66 +782,69 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
 
     /**
      * Compute the invariant for a single vertex, relative either to its 
-     * children or its parents.
+     * children or its parents. This is the number whose digits, in base 
+     * SIZE + 1 + VALENCE, are the invariant of the atom and then the 
+     * invariants of the neighbours and the bond orders (plus SIZE + 1), 
+     * largest first. The digits are kept in the key at <code>slot</code>, 
+     * and the invariant of the vertex is set to the slot, until the layer 
+     * is ranked.
      * 
      * @param vertex the vertex to compute for
+     * @param slot the slot for the key of the vertex
      * @param LAB the labels
      * @param INV the invariants
-     * @param relation 'parent' or 'child'
+     * @param useChildren relative to the children if true, else the parents
      */
-    private void computeVertexInvariant(Vertex vertex, int[] LAB,
-            double[] INV, String relation) {
-        vertex.element = "[";
-        vertex.element += getType(vertex);
+    private void computeVertexInvariant(Vertex vertex, int slot, int[] LAB,
+            int[] INV, boolean useChildren) {
         if (LAB[vertex.atomNumber] >= 0) {
-            vertex.element += ",";
-            vertex.element += String.valueOf(LAB[vertex.atomNumber] + 1);
+            vertex.label = LAB[vertex.atomNumber] + 1;
+        } else {
+            vertex.label = -1;
         }
-        vertex.element += "]";
-        vertex.invariant = (int)INV[vertex.atomNumber];
         
-        double K = SIZE + 1;
-        Double[] invar;
+        int K = SIZE + 1;
+        int[] values = workspace.values;
         int n = 0;
-        if (relation.equals("child")) {
-            if (vertex.children.size() == 0) {
-                return;
-            } else {
-                invar = new Double[2 * vertex.children.size()];
-                for (Vertex child : vertex.children) {
-                    invar[n++] = new Double(child.invariant);
-                    invar[n++] = order(vertex, child) + K;
-                }
-            }
-        } else if (relation.equals("parent")) {
-            if (vertex.parents.size() == 0) {
-                return;
-            } else {
-                invar = new Double[2 * vertex.parents.size()];
-                for (Vertex parent : vertex.parents) {
-                    invar[n++] = new Double(parent.invariant);
-                    invar[n++] = order(vertex, parent) + K;
-                }
-            }
-        } else {
-            return;
+        for (Vertex neighbour : 
+                (useChildren)? vertex.children : vertex.parents) {
+            values[n++] = neighbour.invariant;
+            values[n++] = (int) order(vertex, neighbour) + K;
         }
-        Arrays.sort(invar, this.cmp_invariant_instance);
+        Arrays.sort(values, 0, n);
         
-        // rescale if necessary
-        K += VALENCE;
-        double KK;
-        if (Math.pow(K, n) > POWMAX) {
-            KK = Math.pow(10.0, (10.0 / n));
-        } else {
-            KK = K;
+        int base = K + VALENCE;
+        int[] keys = workspace.keys;
+        int start = slot * keyLength;
+        Arrays.fill(keys, start, start + keyLength, 0);
+        keys[start] = INV[vertex.atomNumber];
+        for (int i = 0; i < n; i++) {
+            keys[start + i + 1] = values[n - 1 - i];
         }
         
-        // compute and scale invariant
-        for (int i = 0; i < n; i++) {
-            double z = Math.pow(KK, (double)(i + 1)) * (KK / K);
-            vertex.invariant += ((double)invar[i]) * z;
+        // carry any digits that are too large for the base
+        for (int i = start; i < start + keyLength - 1; i++) {
+            if (keys[i] >= base) {
+                keys[i + 1] += keys[i] / base;
+                keys[i] %= base;
+            }
+        }
+        vertex.invariant = slot;
+    }
+    
+    /**
+     * Compare the keys at two slots, as the numbers of their digits.
+     */
+    private int compareKeys(int slotA, int slotB) {
+        int[] keys = workspace.keys;
+        int a = slotA * keyLength;
+        int b = slotB * keyLength;
+        for (int i = keyLength - 1; i >= 0; i--) {
+            if (keys[a + i] != keys[b + i]) {
+                return (keys[a + i] < keys[b + i])? -1 : 1;
+            }
         }
+        return 0;
     }
     
     /**
@@ -588,23 +852,29 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
      * 
      * @param N the previous layer
      * @param E the edges seen so far
+     * @param inLayer the vertex for each atom in the layer being built, which
+     *        is left empty
      * @param h the height to build to
      */
-    private void buildLayer(ArrayList<Vertex> N, ArrayList<Edge> E, int h) {
+    private void buildLayer(
+            ArrayList<Vertex> N, EdgeSet E, Vertex[] inLayer, int h) {
         if (h < 0) return;
         ArrayList<Vertex> NN = new ArrayList<Vertex>();
-        ArrayList<Edge> layerE = new ArrayList<Edge>();
+        EdgeSet layerE = new EdgeSet(N.size());
         for (Vertex n : N) {
-            IAtom atom = this.container.getAtom(n.atomNumber);
-            for (IAtom aa : this.container.getConnectedAtomsList(atom)) {
-                addVertex(n, this.container.getAtomNumber(aa), layerE, E, NN);
+            int atom = n.atomNumber;
+            for (int k = graph.start[atom]; k < graph.start[atom + 1]; k++) {
+                addVertex(n, graph.neighbours[k], layerE, E, inLayer, NN);
             }
         }
+        for (Vertex v : NN) {
+            inLayer[v.atomNumber] = null;
+        }
         if (NN.size() != 0) {
             layers.add(NN);
         }
         E.addAll(layerE);
-        buildLayer(NN, E, h - 1);
+        buildLayer(NN, E, inLayer, h - 1);
     }
     
     /**
@@ -614,32 +884,26 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
      * @param aa the atom number we are adding
      * @param layerE the edges seen in this layer
      * @param E all the edges seen so far (except the ones in this layer)
+     * @param inLayer the vertex for each atom already in the new layer
      * @param NN the new layer
      */
-    private void addVertex(
-            Vertex n, int aa, ArrayList<Edge> layerE, ArrayList<Edge> E, 
-            ArrayList<Vertex> NN) {
+    private void addVertex(Vertex n, int aa, EdgeSet layerE, EdgeSet E, 
+            Vertex[] inLayer, ArrayList<Vertex> NN) {
         // check to see if this edge (this bond) has been traversed before
-        Edge e = new Edge(n.atomNumber, aa);
-        if (E.contains(e)) { return; }
+        if (E.contains(n.atomNumber, aa)) { return; }
         
         // check for an existing vertex referring to this atom
-        Vertex v = null;
-        for (Vertex x : NN) {
-            if (x.atomNumber == aa) {
-                v = x;
-                break;
-            }
-        }
+        Vertex v = inLayer[aa];
         
         // make a new vertex if no existing one is found
         if (v == null) {
-            v = new Vertex(aa, "", 1);
+            v = new Vertex(aa, 1);
+            inLayer[aa] = v;
             NN.add(v);
         }
         n.children.add(v);
         v.parents.add(n);
-        layerE.add(e);
+        layerE.add(n.atomNumber, aa);
     }
     
     /**
@@ -652,16 +916,15 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
      * @param L0 the max label used (?)
      */
     private void endLabelInvariant(
-            int h, int[] LAB, int[] OCC, double[] INV, int L0) {
+            int h, int[] LAB, int[] OCC, int[] INV, int L0) {
         for (int i = 0; i < SIZE; i++) {
             currentLabels[i] = -1;
         }
-        String s = layerPrintString(LAB, L0);
-//        System.out.println("FRESH " + s);
+        int[] s = layerPrintString(LAB, L0);
         this.SCURRENT = s;
         
         // store s only if it is larger than SMAXs
-        if (SMAX != null && s.compareTo(SMAX) < 0) {
+        if (SMAX != null && compareCodes(s, SMAX) < 0) {
             return;
         } else {
             SMAX = s;
@@ -672,16 +935,16 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
     }
 
     /**
-     * Convert the DAG into a string
+     * Convert the DAG into the codes of a string
      * 
      * @param LAB the labels
      * @param L0 the max (?) label
-     * @return the canonical string
+     * @return the codes of the canonical string
      */
-    private String layerPrintString(int[] LAB, int L0) {
+    private int[] layerPrintString(int[] LAB, int L0) {
         Vertex root = this.getRoot();
         int[] OCC = new int[SIZE];
-        occurString(root, new ArrayList<Edge>(), OCC);
+        occurString(root, new EdgeSet(SIZE), OCC);
         
         /* remove labels occurring only one time JLF 02-05 */
         for (int i = 0; i < SIZE; i++) {
@@ -689,10 +952,10 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
         }
         LARGEST_LABEL = L0 + 1;
         
-        StringBuffer sb = new StringBuffer();
+        this.codeCount = 0;
         this.CURRENT_LABEL = 0;
-        printString(sb, null, root, new ArrayList<Edge>(), LAB, OCC, 0);
-        return sb.toString();
+        printString(null, root, new EdgeSet(SIZE), LAB, OCC, 0);
+        return Arrays.copyOf(this.codes, this.codeCount);
     }
     
     /**
@@ -703,7 +966,7 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
      * @param edges the edges seen so far
      * @param OCC the recorded occurrences
      */
-    private void occurString(Vertex v, ArrayList<Edge> edges, int[] OCC) {
+    private void occurString(Vertex v, EdgeSet edges, int[] OCC) {
         if (OCCUR[v.atomNumber] > 1) {
             OCC[v.atomNumber] += 1;
         }
@@ -714,21 +977,16 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
         
         // recursion
         for (Vertex child : v.children) {
-            Edge e = new Edge(v.atomNumber, child.atomNumber);
-            if (edges.contains(e)) {
-                continue;
-            } else {
-                edges.add(e);
+            if (edges.add(v.atomNumber, child.atomNumber)) {
                 occurString(child, edges, OCC);
             }
         }
     }
     
     /**
-     * Recursively convert the DAG into a string, putting the contents into
-     * the string buffer sb.
+     * Recursively convert the DAG into a string, adding its codes to the
+     * code buffer.
      * 
-     * @param sb the string buffer that is being filled
      * @param parent the parent of the current vertex
      * @param current the current vertex
      * @param edges the edges seen so far
@@ -736,43 +994,33 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
      * @param OCC the occurrences
      * @param height the current height of the string
      */
-    private void printString(StringBuffer sb, Vertex parent,
-            Vertex current, ArrayList<Edge> edges, int[] LAB,
+    private void printString(Vertex parent,
+            Vertex current, EdgeSet edges, int[] LAB,
             int[] OCC, int height) {
         if (height > this.maxHeight) {
             this.maxHeight = height;
         }
         if (OCC[current.atomNumber] > 1) {
             // if it SHOULD have a number, but doesn't, add one
-            if (!current.element.contains(",")) {
+            if (current.label == -1) {
                 if (LAB[current.atomNumber] < 0) {
                     this.LARGEST_LABEL++;
                     LAB[current.atomNumber] = this.LARGEST_LABEL;
                 }
-                current.element = "[";
-                current.element += getType(current);
-                current.element += ",";
-                current.element += String.valueOf(LAB[current.atomNumber]);
-                current.element += "]";
+                current.label = LAB[current.atomNumber];
             }
         } else {
             // if it SHOULDN'T have a number, but does, remove it
-            int commaIndex = current.element.indexOf(",");
-            if (commaIndex != -1) {
-                current.element = current.element.substring(0, commaIndex) + "]";
-            }
+            current.label = -1;
         }
         
         if (parent != null) {
             double o = order(parent, current);
-            if      (o <= 1) sb.append(current.element);
-            else if (o == 2) sb.append("=").append(current.element);
-            else if (o == 3) sb.append("t").append(current.element);
-            else if (o == 4) sb.append("p").append(current.element);
-            else sb.append(String.format("%d-%s", o, current.element));
-        } else {
-            sb.append(current.element);
+            if      (o == 2) addCode('=');
+            else if (o == 3) addCode('t');
+            else if (o == 4) addCode('p');
         }
+        addCode(vertexCode(current.atomNumber, current.label));
         
         if (currentLabels[current.atomNumber] < 0) {
             currentLabels[current.atomNumber] = CURRENT_LABEL;
@@ -786,20 +1034,16 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
         // recursion
         boolean addedBracket = false;
         for (Vertex child : current.children) {
-            Edge e = new Edge(current.atomNumber, child.atomNumber);
-            if (edges.contains(e)) {
-                continue;
-            } else {
+            if (edges.add(current.atomNumber, child.atomNumber)) {
                 if (!addedBracket) {
-                    sb.append("(");
+                    addCode('(');
                     addedBracket = true;
                 }
-                edges.add(e);
-                printString(sb, current, child, edges, LAB, OCC, height + 1); 
+                printString(current, child, edges, LAB, OCC, height + 1); 
             }
         }
         if (addedBracket) {
-            sb.append(")");
+            addCode(')');
         }
     }
 
@@ -815,19 +1059,14 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
         double order = -1;
         if (vertex == null || parent == null) return order;
         
-        IAtom a = container.getAtom(vertex.atomNumber);
-        IAtom b = container.getAtom(parent.atomNumber);
-        IBond bond = container.getBond(a, b);
-        if (bond == null) return order;
+        int bondOrder = graph.getBondOrder(vertex.atomNumber, parent.atomNumber);
+        if (bondOrder == 0) return order;
         if (isAromatic(vertex) && isAromatic(parent)) {
             return 4;
+        } else if (bondOrder <= 3) {
+            return bondOrder;
         } else {
-            switch (bond.getOrder()) {
-                case SINGLE: return 1;
-                case DOUBLE: return 2;
-                case TRIPLE: return 3;
-                default: return order;
-            }
+            return order;
         }
     }
     
@@ -837,18 +1076,7 @@ public class DAG implements Iterable<ArrayList<Vertex>> {
      * @return true if the referred atom has the correct flag
      */
     private boolean isAromatic(Vertex v) {
-        return container.getAtom(v.atomNumber).getFlag(CDKConstants.ISAROMATIC);
-    }
-
-    /**
-     * Get the 'type' of the vertex - can be any string, so long as it is used
-     * consistently (and does not contain a "," character!).
-     * 
-     * @param vertex a vertex
-     * @return the string for this vertex
-     */
-    private String getType(Vertex vertex) {
-        return container.getAtom(vertex.atomNumber).getSymbol();
+        return graph.aromatic[v.atomNumber];
     }
 
 }
@@ -26,6 +26,10 @@ public class Edge {
         }
     }
 
+    public int hashCode() {
+        return 31 * Math.min(a, b) + Math.max(a, b);
+    }
+
     public String toString() {
         return String.format("%s-%s", a, b);
     }
@@ -0,0 +1,123 @@
+package signature;
+
+/**
+ * A set of undirected edges between atoms, for marking the bonds that have
+ * been traversed while building or printing a DAG. Each edge is packed into a
+ * long key - the smaller atom in the high half - and kept in an open addressing
+ * table, so adding and looking up an edge take constant time, compared to a
+ * scan of a list of Edge objects.
+ *
+ * @author maclean
+ *
+ */
+public class EdgeSet {
+
+    /**
+     * The keys, plus one, so that 0 marks an empty slot
+     */
+    private long[] keys;
+
+    private int size;
+
+    /**
+     * Make a set with room for about <code>expected</code> edges before it
+     * has to grow.
+     *
+     * @param expected the expected number of edges
+     */
+    public EdgeSet(int expected) {
+        int capacity = 16;
+        while (capacity < 2 * expected) {
+            capacity *= 2;
+        }
+        this.keys = new long[capacity];
+    }
+
+    /**
+     * Add the edge a-b, which is the same as b-a.
+     *
+     * @param a one atom
+     * @param b the other atom
+     * @return true if the edge was not already in the set
+     */
+    public boolean add(int a, int b) {
+        return add(key(a, b));
+    }
+
+    /**
+     * @param a one atom
+     * @param b the other atom
+     * @return true if the edge a-b (or b-a) is in the set
+     */
+    public boolean contains(int a, int b) {
+        long k = key(a, b);
+        return keys[find(k)] == k;
+    }
+
+    /**
+     * Add all the edges of another set to this one.
+     *
+     * @param other the other set
+     */
+    public void addAll(EdgeSet other) {
+        for (long k : other.keys) {
+            if (k != 0) {
+                add(k);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private boolean add(long k) {
+        int slot = find(k);
+        if (keys[slot] == k) return false;
+        keys[slot] = k;
+        size++;
+        if (2 * size > keys.length) {
+            grow();
+        }
+        return true;
+    }
+
+    private static long key(int a, int b) {
+        if (a > b) {
+            int tmp = a;
+            a = b;
+            b = tmp;
+        }
+        return (((long) a << 32) | (b & 0xffffffffL)) + 1;
+    }
+
+    /**
+     * @return the slot holding the key, or the empty slot where it would go
+     */
+    private int find(long k) {
+        int mask = keys.length - 1;
+        int slot = hash(k) & mask;
+        while (keys[slot] != 0 && keys[slot] != k) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        return (int) k;
+    }
+
+    private void grow() {
+        long[] old = keys;
+        keys = new long[2 * old.length];
+        for (long k : old) {
+            if (k != 0) {
+                keys[find(k)] = k;
+            }
+        }
+    }
+
+}
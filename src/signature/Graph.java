@@ -2,19 +2,18 @@ package signature;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import org.openscience.cdk.CDKConstants;
 import org.openscience.cdk.exception.CDKException;
-import org.openscience.cdk.graph.ConnectivityChecker;
 import org.openscience.cdk.graph.PathTools;
 import org.openscience.cdk.interfaces.IAtom;
 import org.openscience.cdk.interfaces.IAtomContainer;
 import org.openscience.cdk.interfaces.IBond;
-import org.openscience.cdk.interfaces.IMolecule;
-import org.openscience.cdk.nonotify.NoNotificationChemObjectBuilder;
 
 import utilities.CanonicalChecker;
+import utilities.ConnectedComponents;
 
 /**
  * The graph maintains its underlying atom container as well as a list of the
@@ -47,6 +46,22 @@ public class Graph {
     
     private ArrayList<Boolean> orbitUnsaturatedFlags;
     
+    /**
+     * The connected components of the atom container, kept up to date by 
+     * {@link #bond(int, int)}
+     */
+    private ConnectedComponents components;
+    
+    /**
+     * The signature of the atom container in its current state, and the
+     * atomic signatures made from it so far, keyed by atom and height - 
+     * both are thrown away by {@link #bond(int, int)}, so the container 
+     * must not be changed other than through that
+     */
+    private Signature signature;
+    
+    private Map<Long, String> signatureCache;
+    
     /**
      * Wrap an atom container in a graph, to manage the fragments
      * 
@@ -60,6 +75,8 @@ public class Graph {
         this.orbitUnsaturatedFlags = new ArrayList<Boolean>();
         this.determineUnsaturated();
         this.determineOrbitUnsaturated();
+        this.components = ConnectedComponents.forContainer(atomContainer);
+        this.signatureCache = new HashMap<Long, String>();
     }
     
     /**
@@ -81,6 +98,8 @@ public class Graph {
             this.unsaturatedAtoms = (ArrayList<Integer>) g.unsaturatedAtoms.clone();
             this.orbitUnsaturatedFlags = 
                 (ArrayList<Boolean>) g.orbitUnsaturatedFlags.clone();
+            this.components = new ConnectedComponents(g.components);
+            this.signatureCache = new HashMap<Long, String>();
         } catch (CloneNotSupportedException c) {
             
         }
@@ -141,11 +160,35 @@ public class Graph {
         List<String> signatures = new ArrayList<String>();
         for (IAtom connected : atomContainer.getConnectedAtomsList(atom)) {
             int atomNumber = atomContainer.getAtomNumber(connected);
-            Signature signature = new Signature(this.atomContainer);
-            signatures.add(signature.forAtom(atomNumber, h));
+            signatures.add(getSignatureForAtom(atomNumber, h));
         }
         return signatures;
     }
+    
+    /**
+     * The signature of an atom up to height <code>h</code>, which is only
+     * made the first time it is asked for after the last bond.
+     * 
+     * @param x the index of the atom
+     * @param h the height of the signature
+     * @return the signature string
+     */
+    public String getSignatureForAtom(int x, int h) {
+        Long key = ((long) x << 32) | h;
+        String atomSignature = this.signatureCache.get(key);
+        if (atomSignature == null) {
+            atomSignature = getSignature().forAtom(x, h);
+            this.signatureCache.put(key, atomSignature);
+        }
+        return atomSignature;
+    }
+    
+    private Signature getSignature() {
+        if (this.signature == null) {
+            this.signature = new Signature(this.atomContainer);
+        }
+        return this.signature;
+    }
 
     public IAtomContainer getAtomContainer() {
         return this.atomContainer;
@@ -179,8 +222,7 @@ public class Graph {
      * equal. 
      */
     public void partition() {
-        Signature signature = new Signature(this.atomContainer);
-        this.orbits = signature.calculateOrbits();
+        this.orbits = getSignature().calculateOrbits();
         
         // XXX : fix this
         Collections.reverse(orbits);
@@ -265,12 +307,7 @@ public class Graph {
      * @return true if there is a path from any atom to any other atom
      */
     public boolean isConnected() {
-        int numberOfAtoms = atomContainer.getAtomCount();
-        int numberOfBonds = atomContainer.getBondCount();
-        
-        // n atoms connected into a simple chain have (n - 1) bonds
-        return numberOfBonds >= (numberOfAtoms - 1) 
-                && ConnectivityChecker.isConnected(atomContainer);
+        return this.components.isConnected();
     }
     
     /**
@@ -295,12 +332,12 @@ public class Graph {
      * @param y the second atom to be bonded
      */
     public void bond(int x, int y) {
-        System.out.println(
-                String.format("bonding %d and %d (%s-%s)",
-                x, y, 
-                atomContainer.getAtom(x).getSymbol(),
-                atomContainer.getAtom(y).getSymbol()));
         this.atomContainer.addBond(x, y, IBond.Order.SINGLE);
+        this.signature = null;
+        this.signatureCache.clear();
+        this.components.union(x, y);
+        this.components.setSaturated(x, isSaturated(x));
+        this.components.setSaturated(y, isSaturated(y));
     }
 
     /**
@@ -350,34 +387,7 @@ public class Graph {
      * @return true if this atom is not part of a saturated subgraph
      */
     public boolean noSaturatedSubgraphs(int x) {
-        IMolecule subGraph = 
-            NoNotificationChemObjectBuilder.getInstance().newMolecule();
-        List<IAtom> sphere = new ArrayList<IAtom>(); 
-        IAtom atomX = atomContainer.getAtom(x);
-        sphere.add(atomX);
-        atomX.setFlag(CDKConstants.VISITED, true);
-        PathTools.breadthFirstSearch(atomContainer, sphere, subGraph);
-        int saturationCount = 0;
-        for (IAtom atom : subGraph.atoms()) {
-            atom.setFlag(CDKConstants.VISITED, false);
-            try {
-                if (Util.isSaturated(atom, subGraph)) {
-                    saturationCount++;
-                }
-            } catch (CDKException c) {
-                c.printStackTrace();
-            }
-        }
-        int atomCount = subGraph.getAtomCount();
-        
-        // TODO : remove this debugging stuff
-//        String atoms = "";
-//        for (IAtom a : subGraph.atoms()) { atoms += a.getSymbol(); }
-//        System.out.println(atoms + " " + saturationCount + " " + atomCount);
-        // TODO : remove this debugging stuff
-        
-        return saturationCount < atomCount 
-            || atomCount == atomContainer.getAtomCount();
+        return !this.components.isSaturatedSubgraph(x);
     }
 
     public boolean isCanonical() {
@@ -0,0 +1,81 @@
+package signature;
+
+/**
+ * The minimal view of a molecular graph that the signature code needs : atom
+ * symbols, the bonds (in the order they were made) and their orders. Both an
+ * IAtomContainer (through {@link AtomContainerGraph}) and the primitive graphs
+ * used by the enumerators can be read through this interface, so signatures
+ * and canonicity checks do not need a CDK object to work on.
+ *
+ * @author maclean
+ *
+ */
+public interface IAtomGraph {
+
+    /**
+     * @return the number of atoms in the graph
+     */
+    public int getAtomCount();
+
+    /**
+     * @return the number of bonds in the graph
+     */
+    public int getBondCount();
+
+    /**
+     * Get the element symbol of an atom, such as "C" or "H".
+     *
+     * @param atomNumber the index of the atom
+     * @return the element symbol
+     */
+    public String getSymbol(int atomNumber);
+
+    /**
+     * Get one of the two atoms of a bond.
+     *
+     * @param bondNumber the index of the bond
+     * @param position either 0 or 1
+     * @return the index of the atom at that end of the bond
+     */
+    public int getBondAtom(int bondNumber, int position);
+
+    /**
+     * Get the order of a bond : 1 for single, 2 for double, and so on.
+     *
+     * @param bondNumber the index of the bond
+     * @return the bond order
+     */
+    public int getBondOrder(int bondNumber);
+
+    /**
+     * Get the order of the bond between two atoms.
+     *
+     * @param atomA the index of one atom
+     * @param atomB the index of the other atom
+     * @return the bond order, or 0 if the atoms are not bonded
+     */
+    public int getBondOrder(int atomA, int atomB);
+
+    /**
+     * The number of bonds (not the sum of bond orders) at this atom.
+     *
+     * @param atomNumber the index of the atom
+     * @return the number of connected bonds
+     */
+    public int getDegree(int atomNumber);
+
+    /**
+     * Get the atoms bonded to this one, in the order the bonds were made.
+     *
+     * @param atomNumber the index of the atom
+     * @return the indices of the connected atoms
+     */
+    public int[] getConnected(int atomNumber);
+
+    /**
+     * @param atomNumber the index of the atom
+     * @return true if the atom is flagged as aromatic
+     */
+    public boolean isAromatic(int atomNumber);
+
+}
@@ -3,8 +3,11 @@ package signature;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
 import org.openscience.cdk.interfaces.IChemObjectBuilder;
 import org.openscience.cdk.interfaces.IMolecule;
 
@@ -16,10 +19,109 @@ import org.openscience.cdk.interfaces.IMolecule;
  */
 public class Signature implements ISignature {
     
+    /**
+     * Makes the signatures of a range of atoms, keeping the best in the
+     * range. As in the loop over all the atoms, a later atom with an equal
+     * signature replaces an earlier one as the best.
+     */
+    private class AtomRange extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+
+        private int start;
+        
+        private int end;
+        
+        private int height;
+        
+        /**
+         * If not null, the signature strings and heights of the atoms are 
+         * stored, as for the orbits - otherwise, only the best codes are kept
+         */
+        private String[] strings;
+        
+        private int[] heights;
+        
+        private DAG bestDAG;
+        
+        private int[] bestCodes;
+        
+        private String bestString;
+        
+        private int[] bestLabels;
+        
+        public AtomRange(int start, int end, int height, 
+                String[] strings, int[] heights) {
+            this.start = start;
+            this.end = end;
+            this.height = height;
+            this.strings = strings;
+            this.heights = heights;
+        }
+        
+        protected void compute() {
+            run(new DAG.Workspace(snapshot));
+        }
+        
+        public void run(DAG.Workspace workspace) {
+            for (int atomNumber = start; atomNumber < end; atomNumber++) {
+                DAG dag = signatureAtom(workspace, atomNumber, height);
+                if (strings == null) {
+                    int[] s = dag.getBestSignatureCodes();
+                    if (s == null) continue;
+                    if (bestCodes != null 
+                            && DAG.compareCodes(s, bestCodes) < 0) {
+                        continue;
+                    }
+                    bestCodes = s;
+                    bestDAG = dag;
+                } else {
+                    String s = dag.getBestSignatureString();
+                    strings[atomNumber] = s;
+                    heights[atomNumber] = dag.getMaxHeight();
+                    if (bestString != null && s.compareTo(bestString) < 0) {
+                        continue;
+                    }
+                    bestString = s;
+                    if (bestLabels == null) {
+                        bestLabels = new int[SIZE];
+                    }
+                    for (int i = 0; i < SIZE; i++) {
+                        bestLabels[i] = dag.getMaxLabel(i);
+                    }
+                }
+            }
+        }
+    }
+    
     /**
      * The container the signature comes from
      */
     private IAtomContainer container;
+    
+    /**
+     * The graph that the DAGs are built from - for a container, this is just
+     * a view of that container
+     */
+    private IAtomGraph graph;
+    
+    /**
+     * The arrays that the DAG for each atom is built with on the calling 
+     * thread - made when the first DAG is needed, and shared by the rest,
+     * so a signature should only be used by one thread at a time
+     */
+    private DAG.Workspace workspace;
+    
+    /**
+     * A snapshot of the graph, shared by all the workspaces
+     */
+    private AdjacencySnapshot snapshot;
+    
+    /**
+     * If not null, the signatures of the atoms are made in parallel on this
+     * pool
+     */
+    private ForkJoinPool pool;
    
     /**
      * The number of atoms in the molecule - used everywhere!
@@ -34,9 +136,33 @@ public class Signature implements ISignature {
      */
     public Signature(IAtomContainer container) {
         this.container = container;
+        this.graph = new AtomContainerGraph(container);
         this.SIZE = this.container.getAtomCount();
     }
     
+    /**
+     * Create a signature 'factory' for a graph that is not backed by an atom
+     * container.
+     * 
+     * @param graph
+     */
+    public Signature(IAtomGraph graph) {
+        this.graph = graph;
+        this.SIZE = graph.getAtomCount();
+    }
+    
+    /**
+     * Make the signatures of the atoms in parallel on a fork/join pool, for
+     * the canonical signature and the orbits. The atoms are split into 
+     * ranges, each with its own workspace, and the best of each range is 
+     * joined in order, so the results are the same as on one thread.
+     * 
+     * @param pool the pool, or null to make them on the calling thread
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+    
     /**
      * Get the (lexicographically least) signature for a particular atom
      * of the molecule.
@@ -57,7 +183,7 @@ public class Signature implements ISignature {
      * @return the signature of this atom
      */
     public String forAtom(int atomNumber, int h) {
-        DAG dag = signatureAtom(atomNumber, h);
+        DAG dag = signatureAtom(getWorkspace(), atomNumber, h);
         return dag.getBestSignatureString();
     }
     
@@ -70,7 +196,18 @@ public class Signature implements ISignature {
     public IMolecule toMolecule(IChemObjectBuilder builder) {
         // XXX note that if the height is less than the span, it should really
         // return a subgraph, not the whole molecule...
-        return builder.newMolecule(container);
+        if (container != null) {
+            return builder.newMolecule(container);
+        }
+        IMolecule molecule = builder.newMolecule();
+        for (int i = 0; i < SIZE; i++) {
+            molecule.addAtom(builder.newAtom(graph.getSymbol(i)));
+        }
+        for (int i = 0; i < graph.getBondCount(); i++) {
+            molecule.addBond(graph.getBondAtom(i, 0), graph.getBondAtom(i, 1), 
+                    IBond.Order.values()[graph.getBondOrder(i) - 1]);
+        }
+        return molecule;
     }
     
     /**
@@ -85,18 +222,21 @@ public class Signature implements ISignature {
     }
     
     public String toCanonicalSignatureString(int height) {
-        // make a signature for each atom
-        String SMAX = null;
-        for (int atomNumber = 0; atomNumber < SIZE; atomNumber++) {
-            DAG dag = signatureAtom(atomNumber, height);
-            String s = dag.getBestSignatureString();
-            if (SMAX != null && s.compareTo(SMAX) < 0) {
+        // make a signature for each atom, comparing them as codes, and only
+        // make the string of the best one
+        DAG best = null;
+        int[] SMAX = null;
+        for (AtomRange range : makeSignatures(height, null, null)) {
+            if (range.bestCodes == null) continue;
+            if (SMAX != null && DAG.compareCodes(range.bestCodes, SMAX) < 0) {
                 continue;
             } else {
-                SMAX = s;
+                SMAX = range.bestCodes;
+                best = range.bestDAG;
             }
         }
-        return SMAX;
+        if (best == null) return null;
+        return best.toSignatureString(SMAX);
     }
     
     /**
@@ -127,39 +267,119 @@ public class Signature implements ISignature {
         OrbitElement[] orbitElements = new OrbitElement[SIZE];
         
         // make a signature for each atom
+        String[] strings = new String[SIZE];
+        int[] heights = new int[SIZE];
         String SMAX = null;
-        for (int atomNumber = 0; atomNumber < SIZE; atomNumber++) {
-            DAG dag = signatureAtom(atomNumber, height);
-            String s = dag.getBestSignatureString();   // XXX TODO
-//            System.out.println(String.format("%3d %s", atomNumber, s));
-            if (orbitElements[atomNumber] == null) {
-                orbitElements[atomNumber] = new OrbitElement(atomNumber, s);
+        int[] labels = null;
+        for (AtomRange range : makeSignatures(height, strings, heights)) {
+            if (range.bestString == null) continue;
+            if (SMAX != null && range.bestString.compareTo(SMAX) < 0) {
+                continue;
             } else {
-                orbitElements[atomNumber].atomNumber = atomNumber;
-                orbitElements[atomNumber].signatureString = s;
+                SMAX = range.bestString;
+                labels = range.bestLabels;
+            }
+        }
+        for (int atomNumber = 0; atomNumber < SIZE; atomNumber++) {
+            orbitElements[atomNumber] = 
+                new OrbitElement(atomNumber, strings[atomNumber]);
+            orbitElements[atomNumber].height = heights[atomNumber];
+            orbitElements[atomNumber].label = labels[atomNumber];
+        }
+        if (sorted) {
+            rankOrbits(orbitElements);
+        }
+       
+        return orbitElements;
+    }
+    
+    /**
+     * Update the orbit elements of a graph after a bond is added between x
+     * and y, where this signature is of the graph with the new bond. The
+     * signature of an atom to height h only depends on the atoms within h
+     * bonds of it, and their degrees, so only the atoms that are within h 
+     * bonds of x or y (after the bond is added) are made again. The others 
+     * keep their signatures, and the labels are taken from the DAG of the 
+     * best atom, as in {@link #calculateOrbitElements(int, boolean)}.
+     * 
+     * @param previous the orbit elements of the graph before the bond, 
+     *        sorted or not, calculated to the same height
+     * @param x one atom of the new bond
+     * @param y the other atom of the new bond
+     * @param height the height to calculate each signature to
+     * @param sorted if true, the elements are sorted and ranked into orbits
+     * @return a new OrbitElement instance for each atom
+     */
+    public OrbitElement[] updateOrbitElements(OrbitElement[] previous, 
+            int x, int y, int height, boolean sorted) {
+        OrbitElement[] orbitElements = new OrbitElement[SIZE];
+        for (OrbitElement element : previous) {
+            OrbitElement copy = 
+                new OrbitElement(element.atomNumber, element.signatureString);
+            copy.height = element.height;
+            orbitElements[element.atomNumber] = copy;
+        }
+        
+        // make the signatures of the atoms near the bond again
+        DAG.Workspace workspace = getWorkspace();
+        boolean[] near = atomsNear(x, y, height);
+        String SMAX = null;
+        int best = -1;
+        for (int atomNumber = 0; atomNumber < SIZE; atomNumber++) {
+            OrbitElement element = orbitElements[atomNumber];
+            if (near[atomNumber]) {
+                DAG dag = signatureAtom(workspace, atomNumber, height);
+                element.signatureString = dag.getBestSignatureString();
+                element.height = dag.getMaxHeight();
             }
-//            System.out.println("setting height to " + maxHeight);
-            orbitElements[atomNumber].height = dag.getMaxHeight();
-            if (SMAX != null && s.compareTo(SMAX) < 0) {
+            if (SMAX != null && element.signatureString.compareTo(SMAX) < 0) {
                 continue;
             } else {
-                SMAX = s;
-                for (int i = 0; i < SIZE; i++) {
-                    if (orbitElements[i] == null) {
-                        orbitElements[i] = new OrbitElement(-1, "");
-                    }
-                    orbitElements[i].label = dag.getMaxLabel(i);
-                }
-                orbitElements[atomNumber].signatureString = s;
+                SMAX = element.signatureString;
+                best = atomNumber;
             }
         }
+        
+        DAG dag = signatureAtom(workspace, best, height);
+        for (int atomNumber = 0; atomNumber < SIZE; atomNumber++) {
+            orbitElements[atomNumber].label = dag.getMaxLabel(atomNumber);
+        }
         if (sorted) {
             rankOrbits(orbitElements);
         }
-       
         return orbitElements;
     }
     
+    /**
+     * Find the atoms within <code>h</code> bonds of either x or y.
+     */
+    private boolean[] atomsNear(int x, int y, int h) {
+        AdjacencySnapshot graph = getSnapshot();
+        boolean[] near = new boolean[SIZE];
+        int[] queue = new int[SIZE];
+        int[] distance = new int[SIZE];
+        int head = 0;
+        int tail = 0;
+        near[x] = near[y] = true;
+        queue[tail++] = x;
+        if (y != x) {
+            queue[tail++] = y;
+        }
+        while (head < tail) {
+            int atom = queue[head++];
+            if (distance[atom] >= h) continue;
+            for (int k = graph.start[atom]; k < graph.start[atom + 1]; k++) {
+                int neighbour = graph.neighbours[k];
+                if (!near[neighbour]) {
+                    near[neighbour] = true;
+                    distance[neighbour] = distance[atom] + 1;
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+        return near;
+    }
+    
     private void rankOrbits(OrbitElement[] orbitElements) {
         // bucket-sort the orbit elements
         Arrays.sort(orbitElements);
@@ -206,7 +426,6 @@ public class Signature implements ISignature {
      */
     public boolean isCanonical() {
         OrbitElement[] orbitElements = this.calculateOrbitElements();
-        for (OrbitElement o : orbitElements) System.out.println(o);
         for (OrbitElement o : orbitElements) {
             if (o.atomNumber == o.label) {
                 continue;
@@ -225,18 +444,68 @@ public class Signature implements ISignature {
         return true;
     }
 
+    /**
+     * Make the signatures of all the atoms, on the calling thread or in 
+     * parallel.
+     * 
+     * @param height the height of the signatures
+     * @param strings if not null, the strings of the signatures are kept in 
+     *        this, and their heights in <code>heights</code>
+     * @param heights the heights of the signatures
+     * @return the ranges of atoms, in order, with the best of each
+     */
+    private List<AtomRange> makeSignatures(
+            int height, String[] strings, int[] heights) {
+        List<AtomRange> ranges = new ArrayList<AtomRange>();
+        if (this.pool == null || SIZE < 2) {
+            AtomRange range = new AtomRange(0, SIZE, height, strings, heights);
+            range.run(getWorkspace());
+            ranges.add(range);
+            return ranges;
+        }
+        getSnapshot();
+        int count = Math.min(SIZE, 4 * this.pool.getParallelism());
+        for (int i = 0; i < count; i++) {
+            ranges.add(new AtomRange(
+                    (i * SIZE) / count, ((i + 1) * SIZE) / count, 
+                    height, strings, heights));
+        }
+        for (AtomRange range : ranges) {
+            this.pool.execute(range);
+        }
+        for (AtomRange range : ranges) {
+            range.join();
+        }
+        return ranges;
+    }
+    
+    private AdjacencySnapshot getSnapshot() {
+        if (this.snapshot == null) {
+            this.snapshot = new AdjacencySnapshot(graph);
+        }
+        return this.snapshot;
+    }
+    
+    private DAG.Workspace getWorkspace() {
+        if (this.workspace == null) {
+            this.workspace = new DAG.Workspace(getSnapshot());
+        }
+        return this.workspace;
+    }
+
     /**
      * Create the signature for a particular atom.
      * 
+     * @param workspace the workspace to build the DAG with
      * @param atomNumber the atom to use as the root
      * @param h the height
      * @return the DAG
      */
-    private DAG signatureAtom(int atomNumber, int h) {
+    private DAG signatureAtom(DAG.Workspace workspace, int atomNumber, int h) {
         if (h > this.SIZE + 1) {
-            return new DAG(this.container, atomNumber, SIZE + 1);
+            return new DAG(workspace, atomNumber, SIZE + 1);
         } else {
-            return new DAG(this.container, atomNumber, h);
+            return new DAG(workspace, atomNumber, h);
         }
     }
 }
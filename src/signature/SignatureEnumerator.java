@@ -13,6 +13,10 @@ import org.openscience.cdk.interfaces.IMolecularFormula;
 import org.openscience.cdk.nonotify.NoNotificationChemObjectBuilder;
 import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
 
+import utilities.EnumerationControl;
+import utilities.EnumerationTracer;
+import utilities.Shard;
+
 /**
  * A structure generator based on the work of J.L.Faulon, that uses the idea of
  * a 'signature' to represent allowed fragments to connect.
@@ -31,6 +35,22 @@ public class SignatureEnumerator {
     
     private ArrayList<Graph> solutions = new ArrayList<Graph>();
     
+    /**
+     * Receives the search events, if not null
+     */
+    private EnumerationTracer tracer;
+    
+    /**
+     * If not null, only the part of the search tree that belongs to this
+     * shard is searched
+     */
+    private Shard shard;
+    
+    /**
+     * Limits and cancellation for the search, if not null
+     */
+    private EnumerationControl control;
+    
     /**
      * A generator for the whole of an isomer space, defined by the formula.
      * 
@@ -92,7 +112,6 @@ public class SignatureEnumerator {
         for (IIsotope isotope : formula.isotopes()) {
             for (int i = 0; i < formula.getIsotopeCount(isotope); i++) {
                 atoms.add(this.builder.newAtom(isotope));
-                System.out.println("added " + isotope.getSymbol());
             }
         }
         
@@ -107,6 +126,59 @@ public class SignatureEnumerator {
         this.atomContainer.setAtoms(atoms.toArray(new IAtom[]{}));
     }
     
+    /**
+     * Set a tracer to receive the events of the search - for example, an 
+     * {@link utilities.EnumerationStats} to count them. 
+     * 
+     * @param tracer the tracer, or null to turn tracing off
+     */
+    public void setTracer(EnumerationTracer tracer) {
+        this.tracer = tracer;
+    }
+    
+    /**
+     * Search only one shard of the tree, so that a large enumeration can be
+     * split between processes. The shard depth is counted in bonds, as each
+     * step of this search adds one single bond.
+     * 
+     * @param shard the shard to search, or null to search the whole tree
+     */
+    public void setShard(Shard shard) {
+        this.shard = shard;
+    }
+    
+    /**
+     * Set the limits, cancellation and progress reporting for the search. 
+     * When the control says to stop, {@link #generateSolutions()} returns the
+     * solutions found so far.
+     * 
+     * @param control the control, or null for an unlimited search
+     */
+    public void setControl(EnumerationControl control) {
+        this.control = control;
+    }
+    
+    private boolean isStopped() {
+        return this.control != null && this.control.isStopped();
+    }
+    
+    /**
+     * @param g a graph
+     * @param isSolution true if g is a solution, rather than part of a path
+     * @return false if g is at the shard depth (or is a solution above it)
+     *         and belongs to another shard
+     */
+    private boolean inShard(Graph g, boolean isSolution) {
+        if (this.shard == null) return true;
+        IAtomContainer container = g.getAtomContainer();
+        int depth = container.getBondCount();
+        if (depth == this.shard.getDepth() 
+                || (isSolution && depth < this.shard.getDepth())) {
+            return this.shard.owns(new AtomContainerGraph(container));
+        }
+        return true;
+    }
+    
     public IAtomContainer getInitialContainer() {
         return this.atomContainer;
     }
@@ -119,6 +191,7 @@ public class SignatureEnumerator {
     public List<IAtomContainer> generateSolutions() {
         Graph initialGraph = new Graph(this.atomContainer);
         initialGraph.assignAtomsToTarget(hTau);
+        if (this.control != null) this.control.start();
         this.enumerateMoleculeSignature(initialGraph);
         List<IAtomContainer> atomContainers = new ArrayList<IAtomContainer>();
         for (Graph solution : this.solutions) {
@@ -134,8 +207,11 @@ public class SignatureEnumerator {
      * @param g the graph to saturate
      */
     public void enumerateMoleculeSignature(Graph g) {
+        if (isStopped()) return;
         if (g.isConnected() && g.signatureMatches(this.hTau)) {
-            System.out.println("ADDING " + g + " is canon "+ g.isCanonical());
+            if (!inShard(g, true)) return;
+            if (this.control != null && !this.control.acceptResult()) return;
+            if (this.tracer != null) this.tracer.solutionFound(g);
             this.solutions.add(g);
         } else {
             g.partition();
@@ -163,13 +239,10 @@ public class SignatureEnumerator {
      *            the list of resulting graphs
      */
     public void saturateOrbitSignature(Orbit o, Graph g, List<Graph> s) {
-        System.out.println("saturating orbit " + o);
         if (o == null || o.isEmpty()) {
-            System.out.println("orbit empty");
             s.add(g);
         } else {
             int x = o.getFirstAtom();
-            System.out.println("first atom " + x);
             
             // TODO : should this happen before saturation, or after?!
             o.remove(x); 
@@ -179,6 +252,7 @@ public class SignatureEnumerator {
             saturateAtomSignature(x, g, atomSolutions);
             
             for (Graph h : atomSolutions) {
+                if (isStopped()) return;
                 saturateOrbitSignature(o, h, s);
             }
         }
@@ -193,20 +267,18 @@ public class SignatureEnumerator {
      * @param s the list of resulting graphs
      */
     public void saturateAtomSignature(int x, Graph g, List<Graph> s) {
-        System.out.println("saturating atom " + x + " in " + g);
         if (g.isSaturated(x)) {
-            System.out.println(x + " is already saturated");
             s.add(g);
             return;
         } else {
-            System.out.println("trying all of " + g.unsaturatedAtoms());
+            if (this.control != null && !this.control.nodeExpanded()) return;
+            if (this.tracer != null) this.tracer.nodeExpanded(g, x);
             for (int y : g.unsaturatedAtoms()) {
+                if (isStopped()) return;
                 Graph copy = new Graph(g);
                 
-                if (check(copy, x, y)) {
-                    System.out.println("passed all tests");
+                if (check(copy, x, y) && inShard(copy, false)) {
                     if (copy.isSaturated(y)) {
-                        System.out.println("removing from unsaturated list");
                         copy.removeFromUnsaturatedList(y);
                     }
                     saturateAtomSignature(x, copy, s);
@@ -218,26 +290,29 @@ public class SignatureEnumerator {
     public boolean check(Graph copy, int x, int y) {
         boolean xy = copy.compatibleBond(x, y, hTau);
         if (!xy) {
-            System.out.println("!xy");
+            if (this.tracer != null) this.tracer.signatureRejected(copy, x, y);
 //            continue;
             return false;
         }
         boolean yx = copy.compatibleBond(y, x, hTau);
         if (!yx) {
-            System.out.println("!yx");
+            if (this.tracer != null) this.tracer.signatureRejected(copy, x, y);
 //            continue;
             return false;
         }
         
         copy.bond(x, y);
+        if (this.tracer != null) this.tracer.bondTried(copy, x, y);
         boolean noSubgraphs = copy.noSaturatedSubgraphs(x);
         if (!noSubgraphs) {
-            System.out.println("saturated subgraphs");
+            if (this.tracer != null) {
+                this.tracer.saturatedSubgraphRejected(copy, x, y);
+            }
             return false;
         }
         boolean canon = copy.isCanonical();
         if (!canon) {
-            System.out.println("!canon");
+            if (this.tracer != null) this.tracer.canonicityRejected(copy, x, y);
 //            continue;
             return false;
         }
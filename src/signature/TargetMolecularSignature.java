@@ -1,7 +1,6 @@
 package signature;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 
@@ -135,7 +134,6 @@ public class TargetMolecularSignature {
                 table[j][i] = cBA;
             }
         }
-        System.out.println(Arrays.deepToString(table) + " " + signatures);
         return table;
     }
     
@@ -184,9 +182,6 @@ public class TargetMolecularSignature {
         // compatible with the (h - 1) signature of y 
         int n12 = 0;
         for (String subSignature : this.getBondedSignatures(targetX, h - 1)) {
-            System.out.println(subSignature 
-                    + "\t" + hMinusOneTauY 
-                    + "\t" + subSignature.equals(hMinusOneTauY));
             if (hMinusOneTauY.equals(subSignature)) {
                 n12++;
             }
@@ -4,29 +4,80 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 
-import org.openscience.cdk.CDKConstants;
 import org.openscience.cdk.exception.CDKException;
-import org.openscience.cdk.graph.ConnectivityChecker;
-import org.openscience.cdk.graph.PathTools;
 import org.openscience.cdk.interfaces.IAtom;
 import org.openscience.cdk.interfaces.IAtomContainer;
 import org.openscience.cdk.interfaces.IBond;
 import org.openscience.cdk.interfaces.IChemObjectBuilder;
 import org.openscience.cdk.interfaces.IIsotope;
 import org.openscience.cdk.interfaces.IMolecularFormula;
-import org.openscience.cdk.interfaces.IMolecule;
 import org.openscience.cdk.nonotify.NoNotificationChemObjectBuilder;
 import org.openscience.cdk.tools.SaturationChecker;
 import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
 
+import utilities.ConnectedComponents;
+
 public class Util {
     
     private static SaturationChecker checker;
     
     private static Util instance;
     
+    /**
+     * Element symbols, indexed by element code (which is the atomic number).
+     */
+    private static final String[] SYMBOLS = {
+        "",   "H",  "He", "Li", "Be", "B",  "C",  "N",  "O",  "F",  "Ne", 
+        "Na", "Mg", "Al", "Si", "P",  "S",  "Cl", "Ar", "K",  "Ca", "Sc", 
+        "Ti", "V",  "Cr", "Mn", "Fe", "Co", "Ni", "Cu", "Zn", "Ga", "Ge", 
+        "As", "Se", "Br", "Kr", "Rb", "Sr", "Y",  "Zr", "Nb", "Mo", "Tc", 
+        "Ru", "Rh", "Pd", "Ag", "Cd", "In", "Sn", "Sb", "Te", "I",  "Xe"
+    };
+    
+    /**
+     * The allowed valence states of each element, lowest (standard) first,
+     * indexed by element code. Elements with no entry are never saturated.
+     */
+    private static final int[][] VALENCES = new int[SYMBOLS.length][];
+    
+    static {
+        VALENCES[1]  = new int[] { 1 };         // H
+        VALENCES[5]  = new int[] { 3 };         // B
+        VALENCES[6]  = new int[] { 4 };         // C
+        VALENCES[7]  = new int[] { 3, 5 };      // N
+        VALENCES[8]  = new int[] { 2 };         // O
+        VALENCES[9]  = new int[] { 1 };         // F
+        VALENCES[14] = new int[] { 4 };         // Si
+        VALENCES[15] = new int[] { 3, 5 };      // P
+        VALENCES[16] = new int[] { 2, 4, 6 };   // S
+        VALENCES[17] = new int[] { 1 };         // Cl
+        VALENCES[34] = new int[] { 2, 4, 6 };   // Se
+        VALENCES[35] = new int[] { 1 };         // Br
+        VALENCES[53] = new int[] { 1 };         // I
+    }
+    
+    /**
+     * Element codes, keyed by symbol
+     */
+    private static final Map<String, Integer> CODES = 
+        new HashMap<String, Integer>();
+    
+    static {
+        for (int code = 1; code < SYMBOLS.length; code++) {
+            CODES.put(SYMBOLS[code], code);
+        }
+    }
+    
+    /**
+     * The valence used for elements that are never considered saturated.
+     */
+    public static final int UNLIMITED_VALENCE = Integer.MAX_VALUE;
+    
+    private static final int[] UNLIMITED_VALENCES = { UNLIMITED_VALENCE };
+    
     private Util() {
         try {
             this.checker = new SaturationChecker();
@@ -60,46 +111,85 @@ public class Util {
      */
     public static boolean saturatedSubgraph(
             int atomNumber, IAtomContainer container) {
-        IMolecule subGraph = 
-            NoNotificationChemObjectBuilder.getInstance().newMolecule();
-        List<IAtom> sphere = new ArrayList<IAtom>(); 
-        IAtom atomX = container.getAtom(atomNumber);
-        sphere.add(atomX);
-        atomX.setFlag(CDKConstants.VISITED, true);
-        PathTools.breadthFirstSearch(container, sphere, subGraph);
-        int saturationCount = 0;
-        for (IAtom atom : subGraph.atoms()) {
-            atom.setFlag(CDKConstants.VISITED, false);
-            try {
-                if (Util.isSaturated(atom, subGraph)) {
-                    saturationCount++;
-                }
-            } catch (CDKException c) {
-                c.printStackTrace();
-            }
-        }
-        int atomCount = subGraph.getAtomCount();
-
-        return saturationCount == atomCount && 
-                atomCount < container.getAtomCount();
+        return ConnectedComponents.forContainer(
+                container).isSaturatedSubgraph(atomNumber);
     }
     
+    /**
+     * Check an atom against the standard valence of its element.
+     * 
+     * @param atom the atom to check
+     * @param container the container with the bonds of the atom
+     * @return true if the total bond order of the atom reaches its valence
+     * @throws CDKException
+     */
     public static boolean isSaturated(IAtom atom, IAtomContainer container) 
         throws CDKException {
-        // TODO (todo properly, that is)
+        Integer code = CODES.get(atom.getSymbol());
+        if (code == null) return false;
+        int valence = getValence(code);
+        if (valence == UNLIMITED_VALENCE) return false;
         int totalOrder = 0;
         for (IBond bond : container.getConnectedBondsList(atom)) {
             totalOrder += bond.getOrder().ordinal() + 1;
         }
-        if (atom.getSymbol().equals("H") && totalOrder >= 1) {
-            return true;
+        return totalOrder >= valence;
+    }
+    
+    /**
+     * Get the small integer code used for an element in the primitive graphs.
+     * 
+     * @param symbol an element symbol like "C"
+     * @return the element code
+     */
+    public static int getElementCode(String symbol) {
+        Integer code = CODES.get(symbol);
+        if (code == null) {
+            throw new IllegalArgumentException("Unknown element " + symbol);
         }
-        
-        if (atom.getSymbol().equals("C") && totalOrder >= 4) {
-            return true;
+        return code;
+    }
+    
+    /**
+     * @param code an element code
+     * @return the symbol for that element code
+     */
+    public static String getElementSymbol(int code) {
+        return SYMBOLS[code];
+    }
+    
+    /**
+     * The total bond order at which an atom of this element is saturated in
+     * its standard (lowest) valence state; this matches 
+     * {@link #isSaturated(IAtom, IAtomContainer)}.
+     * 
+     * @param code an element code
+     * @return the valence, or UNLIMITED_VALENCE
+     */
+    public static int getValence(int code) {
+        int[] valences = VALENCES[code];
+        if (valences == null) {
+            return UNLIMITED_VALENCE;
+        } else {
+            return valences[0];
+        }
+    }
+    
+    /**
+     * All the valence states of an element, such as 2, 4 and 6 for sulphur.
+     * The array is shared, and must not be changed.
+     * 
+     * @param code an element code
+     * @return the valences in increasing order - just UNLIMITED_VALENCE if 
+     * there is no limit
+     */
+    public static int[] getValences(int code) {
+        int[] valences = VALENCES[code];
+        if (valences == null) {
+            return UNLIMITED_VALENCES;
+        } else {
+            return valences;
         }
-        
-        return false;
     }
     
     public static boolean isConnected(IAtomContainer atomContainer) {
@@ -108,7 +198,7 @@ public class Util {
     
         // n atoms connected into a simple chain have (n - 1) bonds
         return numberOfBonds >= (numberOfAtoms - 1) 
-        && ConnectivityChecker.isConnected(atomContainer);
+        && ConnectedComponents.forContainer(atomContainer).isConnected();
     }
     
     public static IAtomContainer makeAtomContainerFromFormulaString(String f) {
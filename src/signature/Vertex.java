@@ -12,7 +12,11 @@ public class Vertex {
     
     public int atomNumber;
     
-    public String element;
+    /**
+     * The label printed after the atom type - as in "[C,2]" - or -1 if the
+     * vertex is printed without one
+     */
+    public int label;
     
     public int invariant;
     
@@ -20,16 +24,16 @@ public class Vertex {
     
     public ArrayList<Vertex> children;
     
-    public Vertex(int atomNumber, String element, int invariant) {
+    public Vertex(int atomNumber, int invariant) {
         this.atomNumber = atomNumber;
-        this.element = element;
+        this.label = -1;
         this.invariant = invariant;
         this.parents = new ArrayList<Vertex>();
         this.children = new ArrayList<Vertex>();
     }
     
     public String toString() {
-        return String.format("%s%d(%d)", element, atomNumber, invariant);
+        return String.format("%d,%d(%d)", atomNumber, label, invariant);
     }
     
 }
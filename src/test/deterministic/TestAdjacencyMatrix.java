@@ -0,0 +1,171 @@
+package test.deterministic;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import deterministic.AdjacencyMatrix;
+
+public class TestAdjacencyMatrix {
+
+    public static AdjacencyMatrix makeEmptyMethane() {
+        return new AdjacencyMatrix(new String[] { "C", "H", "H", "H", "H" });
+    }
+
+    @Test
+    public void testBondOrders() {
+        AdjacencyMatrix matrix = new AdjacencyMatrix(new String[] {"C", "C"});
+        Assert.assertEquals(0, matrix.getBondOrder(0, 1));
+        matrix.bond(0, 1);
+        Assert.assertEquals(1, matrix.getBondOrder(1, 0));
+        matrix.bond(1, 0);
+        matrix.bond(0, 1);
+        Assert.assertEquals(3, matrix.getBondOrder(0, 1));
+        Assert.assertEquals(1, matrix.getBondCount());
+        Assert.assertEquals(1, matrix.getRemainingValence(0));
+    }
+
+    @Test
+    public void testMethaneSaturation() {
+        AdjacencyMatrix matrix = TestAdjacencyMatrix.makeEmptyMethane();
+        for (int i = 1; i < 5; i++) {
+            Assert.assertFalse(matrix.isSaturated(0));
+            Assert.assertFalse(matrix.isConnected());
+            matrix.bond(0, i);
+            Assert.assertTrue(matrix.isSaturated(i));
+        }
+        Assert.assertTrue(matrix.isSaturated(0));
+        Assert.assertTrue(matrix.isConnected());
+        Assert.assertFalse(matrix.isSaturatedSubgraph(0));
+    }
+
+    @Test
+    public void testSaturatedSubgraph() {
+        AdjacencyMatrix matrix =
+            new AdjacencyMatrix(new String[] { "C", "C", "H", "H" });
+        matrix.bond(2, 3);
+        Assert.assertTrue(matrix.isSaturatedSubgraph(2));
+        Assert.assertFalse(matrix.isSaturatedSubgraph(0));
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        AdjacencyMatrix matrix = TestAdjacencyMatrix.makeEmptyMethane();
+        matrix.bond(0, 1);
+        AdjacencyMatrix copy = new AdjacencyMatrix(matrix);
+        copy.bond(0, 2);
+        Assert.assertEquals(1, matrix.getBondCount());
+        Assert.assertEquals(2, copy.getBondCount());
+        Assert.assertEquals(0, matrix.getBondOrder(0, 2));
+        Assert.assertEquals(2, copy.getConnected(0).length);
+    }
+
+    @Test
+    public void testUnbond() {
+        AdjacencyMatrix matrix = TestAdjacencyMatrix.makeEmptyMethane();
+        matrix.bond(0, 1);
+        matrix.bond(0, 2);
+        matrix.bond(0, 2);
+        matrix.unbond(0, 2);
+        Assert.assertEquals(1, matrix.getBondOrder(0, 2));
+        matrix.unbond(0, 2);
+        Assert.assertEquals(0, matrix.getBondOrder(0, 2));
+        Assert.assertEquals(1, matrix.getBondCount());
+        Assert.assertEquals(1, matrix.getDegree(0));
+        Assert.assertEquals(3, matrix.getRemainingValence(0));
+    }
+
+    @Test
+    public void testUnsaturatedAtoms() {
+        AdjacencyMatrix matrix = TestAdjacencyMatrix.makeEmptyMethane();
+        Assert.assertEquals(5, matrix.getUnsaturatedCount());
+        matrix.bond(0, 1);
+        matrix.bond(0, 2);
+        Assert.assertEquals(3, matrix.getUnsaturatedCount());
+        Assert.assertEquals(0, matrix.nextUnsaturated(0));
+        Assert.assertEquals(3, matrix.nextUnsaturated(1));
+        matrix.bond(0, 3);
+        matrix.bond(0, 4);
+        Assert.assertTrue(matrix.isFullySaturated());
+        Assert.assertEquals(-1, matrix.nextUnsaturated(0));
+        matrix.unbond(0, 4);
+        Assert.assertFalse(matrix.isFullySaturated());
+        Assert.assertEquals(0, matrix.nextUnsaturated(0));
+        Assert.assertEquals(4, matrix.nextUnsaturated(1));
+    }
+
+    @Test
+    public void testWaterValence() {
+        AdjacencyMatrix matrix = 
+            new AdjacencyMatrix(new String[] { "O", "H", "H" });
+        Assert.assertEquals(2, matrix.getRemainingValence(0));
+        matrix.bond(0, 1);
+        matrix.bond(0, 2);
+        Assert.assertTrue(matrix.isFullySaturated());
+    }
+
+    @Test
+    public void testFeasibilityBounds() {
+        // CH2 : the carbon has more valence left than the hydrogens can take
+        AdjacencyMatrix matrix = 
+            new AdjacencyMatrix(new String[] { "C", "H", "H" });
+        matrix.bond(0, 1);
+        Assert.assertEquals(4, matrix.getTotalRemainingValence());
+        Assert.assertFalse(matrix.isFeasible(0, 1));
+
+        // C2 : a triple bond is the most that two atoms can share
+        matrix = new AdjacencyMatrix(new String[] { "C", "C" });
+        matrix.bond(0, 1);
+        Assert.assertFalse(matrix.isFeasible(0, 1));
+
+        // CH4 can still be finished after the first bond
+        matrix = TestAdjacencyMatrix.makeEmptyMethane();
+        matrix.bond(0, 1);
+        Assert.assertTrue(matrix.isFeasible(0, 1));
+        matrix.unbond(0, 1);
+        Assert.assertEquals(8, matrix.getTotalRemainingValence());
+    }
+
+    @Test
+    public void testValenceParity() {
+        // CH3 has one valence that no bond can use up
+        AdjacencyMatrix matrix = 
+            new AdjacencyMatrix(new String[] { "C", "H", "H", "H" });
+        Assert.assertFalse(matrix.hasEvenValence());
+        Assert.assertTrue(TestAdjacencyMatrix.makeEmptyMethane().hasEvenValence());
+    }
+
+    @Test
+    public void testUnlimitedValence() {
+        // helium has no valence limit, so it is left out of the bounds
+        AdjacencyMatrix matrix = 
+            new AdjacencyMatrix(new String[] { "C", "He", "He" });
+        Assert.assertEquals(4, matrix.getTotalRemainingValence());
+        Assert.assertTrue(matrix.hasEvenValence());
+        matrix.bond(0, 1);
+        Assert.assertEquals(3, matrix.getTotalRemainingValence());
+        Assert.assertTrue(matrix.isFeasible(0, 1));
+    }
+
+    @Test
+    public void testValenceStates() {
+        // N(3) and N(5) for each of two nitrogens, without the swapped copy
+        List<int[]> states = AdjacencyMatrix.getValenceStates(
+                new String[] { "H", "N", "N" });
+        Assert.assertEquals(3, states.size());
+        Assert.assertTrue(Arrays.equals(new int[] { 1, 3, 3 }, states.get(0)));
+        Assert.assertTrue(Arrays.equals(new int[] { 1, 3, 5 }, states.get(1)));
+        Assert.assertTrue(Arrays.equals(new int[] { 1, 5, 5 }, states.get(2)));
+        
+        AdjacencyMatrix matrix = new AdjacencyMatrix(
+                new String[] { "H", "N", "N" }, states.get(1));
+        Assert.assertEquals("N", matrix.getSymbol(1));
+        Assert.assertEquals("N^5", matrix.getSymbol(2));
+        Assert.assertEquals("N", matrix.getElementSymbol(2));
+        Assert.assertEquals(5, matrix.getRemainingValence(2));
+    }
+
+}
@@ -1,6 +1,15 @@
 package test.deterministic;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import junit.framework.Assert;
 
@@ -12,7 +21,21 @@ import org.openscience.cdk.interfaces.IChemObjectBuilder;
 import org.openscience.cdk.nonotify.NoNotificationChemObjectBuilder;
 import org.openscience.cdk.smiles.SmilesGenerator;
 
+import deterministic.AsyncFileResultHandler;
+import deterministic.BondCreationEvent;
+import deterministic.BondCreationListener;
+import deterministic.BondTraceRecorder;
 import deterministic.DeterministicEnumerator;
+import deterministic.EnumeratorResultHandler;
+import deterministic.IsomerCount;
+import deterministic.KnownIsomerCounts;
+import deterministic.SearchCheckpoint;
+import deterministic.SimpleGraph;
+import signature.Signature;
+import utilities.EnumerationControl;
+import utilities.EnumerationStats;
+import utilities.ProgressListener;
+import utilities.Shard;
 
 public class TestDeterministicEnumerator {
     
@@ -45,6 +68,15 @@ public class TestDeterministicEnumerator {
         Assert.assertEquals(expected, actual);
     }
     
+    public static void testBacktrackingFormula(String formulaString, int expected) {
+        DeterministicEnumerator enumerator = 
+            new DeterministicEnumerator(formulaString);
+        enumerator.setBacktracking(true);
+        List<IAtomContainer> results = enumerator.generate();
+        TestDeterministicEnumerator.printResults(results);
+        Assert.assertEquals(expected, results.size());
+    }
+    
     @Test
     public void testPartialEthane() {
         IAtomContainer ac = builder.newAtomContainer();
@@ -82,4 +114,452 @@ public class TestDeterministicEnumerator {
         TestDeterministicEnumerator.testFormula("C3H8", 1);
     }
 
+    @Test
+    public void testBacktrackingEthene() {
+        TestDeterministicEnumerator.testBacktrackingFormula("C2H4", 1);
+    }
+    
+    @Test
+    public void testBacktrackingPropene() {
+        TestDeterministicEnumerator.testBacktrackingFormula("C3H6", 2);
+    }
+
+    @Test
+    public void testParallelPropene() {
+        DeterministicEnumerator enumerator = 
+            new DeterministicEnumerator("C3H6");
+        enumerator.setForkJoinPool(new ForkJoinPool(4));
+        enumerator.setForkDepth(2);
+        List<IAtomContainer> results = enumerator.generate();
+        Assert.assertEquals(2, results.size());
+    }
+
+    @Test
+    public void testIteratorPropene() {
+        HashSet<String> signatures = new HashSet<String>();
+        for (IAtomContainer result : new DeterministicEnumerator("C3H6")) {
+            signatures.add(new Signature(result).toCanonicalSignatureString());
+        }
+        Assert.assertEquals(2, signatures.size());
+    }
+    
+    @Test
+    public void testIteratorFirstResult() {
+        Iterator<IAtomContainer> iterator = 
+            new DeterministicEnumerator("C2H6").iterator();
+        Assert.assertTrue(iterator.hasNext());
+        IAtomContainer first = iterator.next();
+        Assert.assertEquals(7, first.getBondCount());
+    }
+
+    @Test
+    public void testStatsPropene() {
+        DeterministicEnumerator enumerator = new DeterministicEnumerator("C3H6");
+        EnumerationStats stats = new EnumerationStats();
+        enumerator.setTracer(stats);
+        final int[] count = new int[1];
+        enumerator.setHandler(new EnumeratorResultHandler() {
+            public void handle(IAtomContainer result) {
+                count[0]++;
+            }
+        });
+        enumerator.generateToHandler();
+        Assert.assertEquals(count[0], stats.getSolutions());
+        Assert.assertTrue(stats.getBondsTried() >= stats.getSolutions());
+    }
+
+    @Test
+    public void testEthanolAndDimethylEther() {
+        List<IAtomContainer> results = 
+            new DeterministicEnumerator("C2H6O").generate();
+        Assert.assertEquals(2, results.size());
+    }
+
+    @Test
+    public void testHigherValenceStates() {
+        // only P(5) and S(6) can take all the halogens
+        Assert.assertEquals(1, 
+                new DeterministicEnumerator("PCl5").generate().size());
+        Assert.assertEquals(1, 
+                new DeterministicEnumerator("SF6").count(false).getTotal());
+        
+        // O=S=O with S(4), and the ring with S(2)
+        Assert.assertEquals(2, 
+                new DeterministicEnumerator("SO2").generate().size());
+        
+        DeterministicEnumerator standard = new DeterministicEnumerator("PCl5");
+        standard.setStandardValences(true);
+        Assert.assertEquals(0, standard.generate().size());
+    }
+
+    @Test
+    public void testCheckpointResume() throws Exception {
+        File file = File.createTempFile("propene", ".checkpoint");
+        file.delete();
+        int total = 0;
+        for (Iterator<IAtomContainer> i = 
+            new DeterministicEnumerator("C3H6").iterator(); i.hasNext();) {
+            i.next();
+            total++;
+        }
+        
+        DeterministicEnumerator first = new DeterministicEnumerator("C3H6");
+        first.setCheckpointFile(file, 0);
+        Iterator<IAtomContainer> iterator = first.iterator();
+        for (int i = 0; i < 5; i++) {
+            iterator.next();
+        }
+        iterator.hasNext();     // passes the point where the fifth was handled
+        Assert.assertEquals(5, SearchCheckpoint.read(file).getResultCount());
+        
+        DeterministicEnumerator second = new DeterministicEnumerator("C3H6");
+        second.setCheckpointFile(file, 0);
+        int resumed = 0;
+        for (IAtomContainer result : second) {
+            resumed++;
+        }
+        Assert.assertEquals(total, 5 + resumed);
+        Assert.assertTrue(SearchCheckpoint.read(file).isFinished());
+        file.delete();
+    }
+
+    private int countResults(String formula, Shard shard, ForkJoinPool pool) {
+        DeterministicEnumerator enumerator = new DeterministicEnumerator(formula);
+        enumerator.setShard(shard);
+        enumerator.setForkJoinPool(pool);
+        final int[] count = new int[1];
+        enumerator.setHandler(new EnumeratorResultHandler() {
+            public synchronized void handle(IAtomContainer result) {
+                count[0]++;
+            }
+        });
+        enumerator.generateToHandler();
+        return count[0];
+    }
+
+    @Test
+    public void testShardsCoverPropene() {
+        int total = countResults("C3H6", new Shard(0, 1, 3), null);
+        for (int depth = 1; depth < 5; depth++) {
+            int sum = 0;
+            int parallelSum = 0;
+            for (int i = 0; i < 3; i++) {
+                sum += countResults("C3H6", new Shard(i, 3, depth), null);
+                parallelSum += countResults(
+                        "C3H6", new Shard(i, 3, depth), new ForkJoinPool(2));
+            }
+            Assert.assertEquals(total, sum);
+            Assert.assertEquals(total, parallelSum);
+        }
+    }
+
+    @Test
+    public void testAsyncFileHandler() throws Exception {
+        File directory = File.createTempFile("propene", "");
+        directory.delete();
+        directory.mkdir();
+        AsyncFileResultHandler handler = new AsyncFileResultHandler(
+                directory, "C3H6", AsyncFileResultHandler.Format.BINARY, 
+                4, 2, 64);
+        DeterministicEnumerator enumerator = new DeterministicEnumerator("C3H6");
+        enumerator.setHandler(handler);
+        enumerator.setBacktracking(true);
+        enumerator.generateToHandler();
+        handler.close();
+        
+        Assert.assertEquals(
+                countResults("C3H6", null, null), handler.getCount());
+        long length = 0;
+        for (File file : handler.getFiles()) {
+            length += file.length();
+            file.delete();
+        }
+        directory.delete();
+        Assert.assertTrue(handler.getFiles().size() > 1);
+        
+        // at least 9 atoms, 8 bonds, and the two counts for each structure
+        Assert.assertTrue(length >= handler.getCount() * (9 + 8 * 5 + 4));
+    }
+
+    @Test(timeout=10000)
+    public void testAsyncHandlerCloseAfterFailure() throws Exception {
+        File directory = File.createTempFile("missing", "");
+        directory.delete();
+        AsyncFileResultHandler handler = new AsyncFileResultHandler(
+                directory, "C3H6", AsyncFileResultHandler.Format.BINARY);
+        handler.handle(new DeterministicEnumerator("C3H6").generate().get(0));
+        try {
+            handler.close();
+            Assert.fail("Results written to a missing directory");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    @Test(timeout=10000)
+    public void testAsyncHandlerHandleAfterClose() throws Exception {
+        File directory = File.createTempFile("results", "");
+        directory.delete();
+        directory.mkdir();
+        AsyncFileResultHandler handler = new AsyncFileResultHandler(
+                directory, "C3H6", AsyncFileResultHandler.Format.BINARY, 
+                1, 1, 1024);
+        IAtomContainer result = new DeterministicEnumerator("C3H6").generate().get(0);
+        handler.handle(result);
+        handler.close();
+        handler.close();
+        Assert.assertEquals(1, handler.getCount());
+        try {
+            handler.handle(result);
+            Assert.fail("Result handled after close");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+        for (File file : handler.getFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testCountMatchesGenerate() {
+        for (String formula : new String[] { "C3H6", "C2H6O" }) {
+            DeterministicEnumerator enumerator = 
+                new DeterministicEnumerator(formula);
+            IsomerCount count = enumerator.count(true);
+            Assert.assertEquals(
+                    enumerator.generate().size(), count.getTotal());
+            long sum = 0;
+            for (long n : count.getCountsByDegreeSequence().values()) {
+                sum += n;
+            }
+            Assert.assertEquals(count.getTotal(), sum);
+            sum = 0;
+            for (long n : count.getCountsByFirstLevelOrbits().values()) {
+                sum += n;
+            }
+            Assert.assertEquals(count.getTotal(), sum);
+        }
+    }
+
+    @Test
+    public void testKnownCounts() {
+        List<String> wrong = new ArrayList<String>();
+        for (String formula : KnownIsomerCounts.getVerifiedFormulas()) {
+            long expected = KnownIsomerCounts.getCount(formula);
+            long count = new DeterministicEnumerator(formula).count(false).getTotal();
+            if (count != expected) {
+                wrong.add(formula + " expected " + expected + " got " + count);
+            }
+        }
+        Assert.assertTrue(wrong.toString(), wrong.isEmpty());
+    }
+    
+    @Test
+    public void testKnownCountsEachMode() {
+        List<String> wrong = new ArrayList<String>();
+        for (String formula : KnownIsomerCounts.getVerifiedFormulas()) {
+            long expected = KnownIsomerCounts.getCount(formula);
+            
+            DeterministicEnumerator copying = new DeterministicEnumerator(formula);
+            checkCount(formula, "copying", expected, copying.generate().size(), wrong);
+            
+            DeterministicEnumerator inPlace = new DeterministicEnumerator(formula);
+            inPlace.setBacktracking(true);
+            checkCount(formula, "in-place", expected, inPlace.generate().size(), wrong);
+            
+            DeterministicEnumerator forkJoin = new DeterministicEnumerator(formula);
+            forkJoin.setForkJoinPool(new ForkJoinPool(2));
+            checkCount(formula, "fork/join", expected, forkJoin.count(false).getTotal(), wrong);
+            
+            Set<String> signatures = new HashSet<String>();
+            Iterator<IAtomContainer> iterator = 
+                new DeterministicEnumerator(formula).iterator();
+            while (iterator.hasNext()) {
+                signatures.add(new Signature(iterator.next()).toCanonicalSignatureString());
+            }
+            checkCount(formula, "iterator", expected, signatures.size(), wrong);
+        }
+        Assert.assertTrue(wrong.toString(), wrong.isEmpty());
+    }
+    
+    private static void checkCount(String formula, String mode, 
+            long expected, long count, List<String> wrong) {
+        if (count != expected) {
+            wrong.add(formula + " (" + mode + ") expected " 
+                    + expected + " got " + count);
+        }
+    }
+
+    @Test
+    public void testResultLimit() {
+        DeterministicEnumerator enumerator = new DeterministicEnumerator("C3H6");
+        EnumerationControl control = new EnumerationControl();
+        control.setResultLimit(3);
+        enumerator.setControl(control);
+        final int[] count = new int[1];
+        enumerator.setHandler(new EnumeratorResultHandler() {
+            public void handle(IAtomContainer result) {
+                count[0]++;
+            }
+        });
+        enumerator.generateToHandler();
+        Assert.assertEquals(3, count[0]);
+        Assert.assertEquals(
+                EnumerationControl.StopReason.RESULT_LIMIT, 
+                control.getStopReason());
+    }
+
+    @Test
+    public void testCancelAndProgress() {
+        DeterministicEnumerator enumerator = new DeterministicEnumerator("C3H6");
+        enumerator.setBacktracking(true);
+        final EnumerationControl control = new EnumerationControl();
+        final long[] reports = new long[1];
+        control.setProgressListener(new ProgressListener() {
+            public void progress(long nodes, long solutions, long elapsed) {
+                reports[0]++;
+            }
+        }, 0);
+        enumerator.setControl(control);
+        final int[] count = new int[1];
+        enumerator.setHandler(new EnumeratorResultHandler() {
+            public void handle(IAtomContainer result) {
+                count[0]++;
+                control.cancel();
+            }
+        });
+        enumerator.generateToHandler();
+        Assert.assertEquals(1, count[0]);
+        Assert.assertTrue(control.isCancelled());
+        Assert.assertTrue(reports[0] > 0);
+    }
+
+    @Test
+    public void testNodeLimit() {
+        DeterministicEnumerator enumerator = new DeterministicEnumerator("C3H6");
+        EnumerationControl control = new EnumerationControl();
+        control.setNodeLimit(5);
+        enumerator.setControl(control);
+        enumerator.generateToHandler();
+        Assert.assertEquals(
+                EnumerationControl.StopReason.NODE_LIMIT, 
+                control.getStopReason());
+        Assert.assertEquals(6, control.getNodeCount());
+    }
+
+    @Test
+    public void testIteratorLimits() {
+        DeterministicEnumerator enumerator = new DeterministicEnumerator("C3H6");
+        EnumerationControl control = new EnumerationControl();
+        control.setResultLimit(0);
+        enumerator.setControl(control);
+        Assert.assertFalse(enumerator.iterator().hasNext());
+        
+        enumerator = new DeterministicEnumerator("C3H6");
+        control = new EnumerationControl();
+        control.setNodeLimit(5);
+        enumerator.setControl(control);
+        EnumerationStats stats = new EnumerationStats();
+        enumerator.setTracer(stats);
+        Iterator<IAtomContainer> iterator = enumerator.iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+        }
+        Assert.assertEquals(
+                EnumerationControl.StopReason.NODE_LIMIT, 
+                control.getStopReason());
+        Assert.assertEquals(5, stats.getNodesExpanded());
+    }
+
+    @Test
+    public void testResumeAfterRejectedResult() throws Exception {
+        File file = File.createTempFile("propene", ".checkpoint");
+        file.delete();
+        int total = 0;
+        for (IAtomContainer result : new DeterministicEnumerator("C3H6")) {
+            total++;
+        }
+        
+        // the first result is found, but not handed out
+        DeterministicEnumerator first = new DeterministicEnumerator("C3H6");
+        EnumerationControl control = new EnumerationControl();
+        control.setResultLimit(0);
+        first.setControl(control);
+        first.setCheckpointFile(file, 0);
+        Assert.assertFalse(first.iterator().hasNext());
+        
+        DeterministicEnumerator second = new DeterministicEnumerator("C3H6");
+        second.setCheckpointFile(file, 0);
+        int resumed = 0;
+        for (IAtomContainer result : second) {
+            resumed++;
+        }
+        Assert.assertEquals(total, resumed);
+        file.delete();
+    }
+
+    @Test
+    public void testCheckpointWriteFailure() throws Exception {
+        File dir = File.createTempFile("missing", "");
+        dir.delete();
+        DeterministicEnumerator enumerator = new DeterministicEnumerator("C3H6");
+        enumerator.setCheckpointFile(new File(dir, "propene.checkpoint"), 0);
+        Iterator<IAtomContainer> iterator = enumerator.iterator();
+        iterator.next();
+        try {
+            iterator.hasNext();
+            Assert.fail("Checkpoint written to a missing directory");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+        Assert.assertFalse(iterator.hasNext());
+    }
+
+    private void checkTraceReplay(boolean backtracking) {
+        DeterministicEnumerator enumerator = new DeterministicEnumerator("C3H6");
+        enumerator.setBacktracking(backtracking);
+        final BondTraceRecorder recorder = new BondTraceRecorder(100000);
+        final Map<Long, String> children = new HashMap<Long, String>();
+        final SimpleGraph[] root = new SimpleGraph[1];
+        enumerator.setBondCreationListener(new BondCreationListener() {
+            public void bondAdded(BondCreationEvent event) {
+                recorder.bondAdded(event);
+                children.put(event.childId, event.getChild().toString());
+                if (event.parentId == 0) root[0] = event.getParent();
+            }
+        });
+        enumerator.generateToHandler();
+        Assert.assertEquals(children.size(), recorder.getRecordCount());
+        for (long id : children.keySet()) {
+            Assert.assertEquals(children.get(id), 
+                    recorder.getGraph(id, root[0]).toString());
+        }
+    }
+
+    @Test
+    public void testTraceReplay() {
+        checkTraceReplay(false);
+        checkTraceReplay(true);
+    }
+
+    @Test
+    public void testTraceRingBuffer() throws Exception {
+        File file = File.createTempFile("propene", ".trace");
+        DeterministicEnumerator enumerator = new DeterministicEnumerator("C3H6");
+        enumerator.setBacktracking(true);
+        BondTraceRecorder recorder = new BondTraceRecorder(10, file);
+        enumerator.setBondCreationListener(recorder);
+        enumerator.generateToHandler();
+        recorder.close();
+        Assert.assertEquals(10, recorder.size());
+        Assert.assertTrue(recorder.getRecordCount() > 10);
+
+        BondTraceRecorder loaded = BondTraceRecorder.load(file);
+        Assert.assertEquals(recorder.getRecordCount(), loaded.size());
+        Assert.assertEquals(recorder.getChildId(9), 
+                loaded.getChildId(loaded.size() - 1));
+        file.delete();
+    }
+
 }
@@ -1,6 +1,7 @@
 package test.deterministic;
 
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import junit.framework.Assert;
 
@@ -8,6 +9,7 @@ import org.junit.Test;
 import org.openscience.cdk.interfaces.IMolecule;
 
 import deterministic.SimpleGenerator;
+import signature.Signature;
 
 public class TestSimpleGenerator {
     
@@ -22,5 +24,19 @@ public class TestSimpleGenerator {
         List<IMolecule> molecules = new SimpleGenerator().generate("C2H6");
         Assert.assertEquals(1, molecules.size());
     }
+    
+    @Test
+    public void testParallelSameAsSequential() throws Exception {
+        List<IMolecule> sequential = new SimpleGenerator().generate("CH4O");
+        SimpleGenerator generator = new SimpleGenerator();
+        generator.setForkJoinPool(new ForkJoinPool(4));
+        List<IMolecule> parallel = generator.generate("CH4O");
+        Assert.assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            Assert.assertEquals(
+                    new Signature(sequential.get(i)).toCanonicalSignatureString(),
+                    new Signature(parallel.get(i)).toCanonicalSignatureString());
+        }
+    }
 
 }
@@ -19,13 +19,11 @@ public class TestOutlinePanel {
         IAtomContainer start = bb.newAtomContainer(); 
         SimpleGraph base = new SimpleGraph(start);   
         OutlineTreePanel panel = new OutlineTreePanel(base);
-        BondCreationEvent bce = new BondCreationEvent();
-        bce.parent = base;
-        bce.child = new SimpleGraph(bb.newAtomContainer());
+        BondCreationEvent bce = new BondCreationEvent(
+                base, new SimpleGraph(bb.newAtomContainer()));
         panel.bondAdded(bce);
-        bce = new BondCreationEvent();
-        bce.parent = base;
-        bce.child = new SimpleGraph(bb.newAtomContainer());
+        bce = new BondCreationEvent(
+                base, new SimpleGraph(bb.newAtomContainer()));
         panel.bondAdded(bce);
         frame.add(panel);
         frame.setSize(400, 400);
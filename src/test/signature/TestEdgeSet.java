@@ -0,0 +1,35 @@
+package test.signature;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import signature.EdgeSet;
+
+public class TestEdgeSet {
+    
+    @Test
+    public void testUndirected() {
+        EdgeSet edges = new EdgeSet(4);
+        Assert.assertTrue(edges.add(3, 0));
+        Assert.assertTrue(edges.contains(0, 3));
+        Assert.assertFalse(edges.add(0, 3));
+        Assert.assertFalse(edges.contains(0, 0));
+        Assert.assertEquals(1, edges.size());
+    }
+    
+    @Test
+    public void testGrowAndAddAll() {
+        EdgeSet edges = new EdgeSet(1);
+        for (int i = 0; i < 1000; i++) {
+            edges.add(i, i + 1);
+        }
+        EdgeSet all = new EdgeSet(1);
+        all.addAll(edges);
+        Assert.assertEquals(1000, all.size());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(all.contains(i + 1, i));
+        }
+        Assert.assertFalse(all.contains(0, 2));
+    }
+
+}
@@ -211,5 +211,21 @@ public class TestGraph {
             x++;
         }
     }
+    
+    @Test
+    public void signatureCacheClearedByBond() {
+        IAtomContainer ac = builder.newAtomContainer();
+        for (int i = 0; i < 3; i++) {
+            ac.addAtom(builder.newAtom("C"));
+        }
+        ac.addBond(0, 1, IBond.Order.SINGLE);
+        Graph g = new Graph(ac);
+        String before = g.getSignatureForAtom(1, 1);
+        Assert.assertEquals(before, g.getSignatureForAtom(1, 1));
+        g.bond(1, 2);
+        String after = g.getSignatureForAtom(1, 1);
+        Assert.assertFalse(before.equals(after));
+        Assert.assertEquals(2, g.getSignaturesOfBondedAtoms(1, 0).size());
+    }
 
 }
@@ -3,6 +3,7 @@ package test.signature;
 import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -12,6 +13,7 @@ import org.openscience.cdk.interfaces.IMolecule;
 import org.openscience.cdk.io.MDLWriter;
 import org.openscience.cdk.templates.MoleculeFactory;
 
+import signature.DAG;
 import signature.Orbit;
 import signature.OrbitElement;
 import signature.Signature;
@@ -287,6 +289,73 @@ public class TestSignature {
         
         TestSignature.testAtoms(mol, expected);
     }
+
+    @Test
+    public void testCodesCompareAsStrings() {
+        IMolecule mol = AbstractSignatureTest.makeCuneane();
+        int n = mol.getAtomCount();
+        DAG[] dags = new DAG[n];
+        for (int i = 0; i < n; i++) {
+            dags[i] = new DAG(mol, i, n);
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                int byCodes = DAG.compareCodes(
+                        dags[i].getBestSignatureCodes(), 
+                        dags[j].getBestSignatureCodes());
+                int byStrings = dags[i].getBestSignatureString().compareTo(
+                        dags[j].getBestSignatureString());
+                Assert.assertEquals(
+                        Integer.signum(byStrings), Integer.signum(byCodes));
+            }
+        }
+    }
+    
+    @Test
+    public void testLabelCodesCompareAsStrings() {
+        int[] labels = { -1, 1, 9, 10, 12, 100 };
+        for (int a : labels) {
+            for (int b : labels) {
+                int byCodes = DAG.compareCodes(
+                        new int[] { DAG.makeVertexCode(0, a) }, 
+                        new int[] { DAG.makeVertexCode(0, b) });
+                String stringA = (a == -1) ? "[C]" : "[C," + a + "]";
+                String stringB = (b == -1) ? "[C]" : "[C," + b + "]";
+                Assert.assertEquals(stringA + " " + stringB,
+                        Integer.signum(stringA.compareTo(stringB)), 
+                        Integer.signum(byCodes));
+            }
+        }
+    }
     
+    @Test
+    public void testParallelSameAsSequential() {
+        IMolecule mol = AbstractSignatureTest.makeCage();
+        Signature sequential = new Signature(mol);
+        Signature parallel = new Signature(mol);
+        parallel.setForkJoinPool(new ForkJoinPool(4));
+        Assert.assertEquals(sequential.toCanonicalSignatureString(), 
+                parallel.toCanonicalSignatureString());
+        OrbitElement[] expected = sequential.calculateOrbitElements();
+        OrbitElement[] actual = parallel.calculateOrbitElements();
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i].toString(), actual[i].toString());
+        }
+    }
+    
+    @Test
+    public void testUpdateOrbitElements() {
+        IMolecule mol = AbstractSignatureTest.makeHexane();
+        OrbitElement[] previous = 
+            new Signature(mol).calculateOrbitElements(1, true);
+        mol.addBond(0, 5, IBond.Order.SINGLE);
+        OrbitElement[] expected = 
+            new Signature(mol).calculateOrbitElements(1, true);
+        OrbitElement[] actual = 
+            new Signature(mol).updateOrbitElements(previous, 0, 5, 1, true);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i].toString(), actual[i].toString());
+        }
+    }
 
 }
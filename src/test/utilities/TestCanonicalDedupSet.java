@@ -0,0 +1,55 @@
+package test.utilities;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import utilities.CanonicalDedupSet;
+
+public class TestCanonicalDedupSet {
+    
+    @Test
+    public void testAdd() {
+        CanonicalDedupSet set = new CanonicalDedupSet();
+        Assert.assertTrue(set.add("[C]([H][H][H][H])"));
+        Assert.assertFalse(set.add("[C]([H][H][H][H])"));
+        Assert.assertTrue(set.add("[H]([C]([H][H][H]))"));
+        Assert.assertEquals(2, set.size());
+    }
+    
+    @Test
+    public void testSpill() {
+        CanonicalDedupSet set = new CanonicalDedupSet(100, null, true);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(set.add("form" + i));
+        }
+        // the first nine runs were merged into one
+        Assert.assertEquals(2, set.getRunCount());
+        for (int i = 0; i < 1000; i += 7) {
+            Assert.assertFalse(set.add("form" + i));
+        }
+        Assert.assertTrue(set.add("form" + 1000));
+        Assert.assertEquals(1001, set.size());
+        Assert.assertEquals(0, set.getCollisionCount());
+        set.close();
+    }
+    
+    @Test
+    public void testMergedRuns() {
+        CanonicalDedupSet set = new CanonicalDedupSet(500, null, true);
+        for (int i = 0; i < 30000; i++) {
+            Assert.assertTrue(set.add("form" + i));
+        }
+        Assert.assertTrue(set.getRunCount() <= 8);
+        for (int i = 0; i < 30000; i += 3) {
+            Assert.assertFalse(set.add("form" + i));
+        }
+        for (int i = 30000; i < 31000; i++) {
+            Assert.assertTrue(set.add("form" + i));
+        }
+        Assert.assertEquals(31000, set.size());
+        Assert.assertEquals(0, set.getCollisionCount());
+        set.close();
+    }
+
+}
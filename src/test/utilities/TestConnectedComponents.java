@@ -0,0 +1,52 @@
+package test.utilities;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import utilities.ConnectedComponents;
+
+public class TestConnectedComponents {
+    
+    @Test
+    public void testUnion() {
+        ConnectedComponents components = new ConnectedComponents(4);
+        Assert.assertEquals(4, components.getComponentCount());
+        Assert.assertTrue(components.union(0, 1));
+        Assert.assertTrue(components.union(2, 3));
+        Assert.assertFalse(components.isConnected());
+        Assert.assertEquals(2, components.getComponentSize(3));
+        Assert.assertTrue(components.union(1, 2));
+        Assert.assertFalse(components.union(0, 3));
+        Assert.assertTrue(components.isConnected());
+        Assert.assertEquals(components.find(0), components.find(3));
+    }
+    
+    @Test
+    public void testSaturatedSubgraph() {
+        ConnectedComponents components = new ConnectedComponents(4);
+        components.union(2, 3);
+        components.setSaturated(2, true);
+        Assert.assertFalse(components.isSaturatedSubgraph(3));
+        components.setSaturated(3, true);
+        Assert.assertTrue(components.isSaturatedSubgraph(2));
+        Assert.assertFalse(components.isSaturatedSubgraph(0));
+    }
+    
+    @Test
+    public void testUndo() {
+        ConnectedComponents components = new ConnectedComponents(3);
+        components.union(0, 1);
+        components.union(1, 2);
+        components.setSaturated(2, true);
+        components.setSaturated(2, false);
+        components.undo();
+        Assert.assertEquals(2, components.getComponentCount());
+        Assert.assertEquals(2, components.getComponentSize(0));
+        Assert.assertEquals(1, components.getComponentSize(2));
+        components.setSaturated(2, true);
+        Assert.assertTrue(components.isSaturatedComponent(2));
+        Assert.assertFalse(components.isSaturatedComponent(0));
+    }
+
+}
@@ -4,10 +4,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
-import org.openscience.cdk.interfaces.IAtom;
 import org.openscience.cdk.interfaces.IAtomContainer;
-import org.openscience.cdk.interfaces.IBond;
 
+import signature.AtomContainerGraph;
+import signature.IAtomGraph;
 import signature.Orbit;
 import signature.Signature;
 
@@ -31,24 +31,31 @@ import signature.Signature;
 public class CanonicalChecker {
     
     public static boolean isCanonicalTotal(IAtomContainer atomContainer) {
-        String initialString = CanonicalChecker.asString(atomContainer);
-        if (initialString.equals("")) return true;
+        return CanonicalChecker.isCanonicalTotal(
+                new AtomContainerGraph(atomContainer));
+    }
+    
+    public static boolean isCanonicalTotal(IAtomGraph graph) {
+        int[] initial = CanonicalChecker.certificate(graph);
+        if (initial.length == 0) return true;
         Orbit orbit = new Orbit("", 0);
-        for (int i = 0; i < atomContainer.getAtomCount(); i++) {
+        for (int i = 0; i < graph.getAtomCount(); i++) {
             orbit.addAtom(i);
         }
-        System.out.println("checking " + initialString);
-        return CanonicalChecker.checkOrbit(atomContainer, orbit, initialString);
+        return CanonicalChecker.checkOrbit(graph, orbit, initial);
     }
     
     public static boolean isCanonicalComplete(IAtomContainer atomContainer) {
-        String initialString = CanonicalChecker.asString(atomContainer);
-//        System.out.println("initial : " + initialString);
-        if (initialString.equals("")) return true;
-        for (Orbit orbit : CanonicalChecker.getSimpleOrbits(atomContainer)) {
+        return CanonicalChecker.isCanonicalComplete(
+                new AtomContainerGraph(atomContainer));
+    }
+    
+    public static boolean isCanonicalComplete(IAtomGraph graph) {
+        int[] initial = CanonicalChecker.certificate(graph);
+        if (initial.length == 0) return true;
+        for (Orbit orbit : CanonicalChecker.getSimpleOrbits(graph)) {
 //            System.out.println("Checking orbit " + orbit);
-            if (CanonicalChecker.checkOrbit(
-                    atomContainer, orbit, initialString)) {
+            if (CanonicalChecker.checkOrbit(graph, orbit, initial)) {
                 continue;
             } else {
                 return false;
@@ -58,21 +65,23 @@ public class CanonicalChecker {
     }
     
     public static List<Orbit> getSimpleOrbits(IAtomContainer container) {
+        return CanonicalChecker.getSimpleOrbits(
+                new AtomContainerGraph(container));
+    }
+    
+    public static List<Orbit> getSimpleOrbits(IAtomGraph graph) {
         HashMap<String, Orbit> orbits = new HashMap<String, Orbit>();
-        int i = 0;
-        for (IAtom atom : container.atoms()) {
-            if (container.getConnectedAtomsCount(atom) == 0) {
-                i++;
+        for (int i = 0; i < graph.getAtomCount(); i++) {
+            if (graph.getDegree(i) == 0) {
                 continue;
             }
-            String symbol = atom.getSymbol();
+            String symbol = graph.getSymbol(i);
             Orbit current =  orbits.get(symbol);
             if (current == null) {
                 current = new Orbit(symbol, 0);
                 orbits.put(symbol, current);
             }
             current.addAtom(i);
-            i++;
         }
         return new ArrayList<Orbit>(orbits.values());
     }
@@ -84,20 +93,28 @@ public class CanonicalChecker {
      * @return
      */
     public static boolean isCanonical(IAtomContainer atomContainer) {
-        String initialString = CanonicalChecker.asString(atomContainer);
-        Signature signature = new Signature(atomContainer);
+        return CanonicalChecker.isCanonical(
+                new AtomContainerGraph(atomContainer));
+    }
+    
+    /**
+     * Check a graph to see if it is canonical.
+     * 
+     * @param graph
+     * @return
+     */
+    public static boolean isCanonical(IAtomGraph graph) {
+        int[] initial = CanonicalChecker.certificate(graph);
+        Signature signature = new Signature(graph);
         for (Orbit orbit : signature.calculateOrbits()) {
 //            System.out.println("orbit " + orbit + " " + orbit.getHeight());
             if (orbit.getHeight() < 1 ||
-                    CanonicalChecker.checkOrbit(
-                            atomContainer, orbit, initialString)) {
+                    CanonicalChecker.checkOrbit(graph, orbit, initial)) {
                 continue;
             } else {
-                System.out.println("Failed " + initialString);
                 return false;
             }
         }
-        System.out.println("Succeded " + initialString);
         return true;
     }
     
@@ -108,17 +125,17 @@ public class CanonicalChecker {
      * method returns false, as the initial ordering cannot be canonical. 
      * 
      * @param orbit essentially just a list of symmetry related atoms 
-     * @param initialString the initial certificate string
+     * @param initial the initial certificate
      * 
      * @return false if any permutation produces a smaller certificate
      */
     private static boolean checkOrbit(
-            IAtomContainer atomContainer, Orbit orbit, String initialString) {
+            IAtomGraph graph, Orbit orbit, int[] initial) {
         List<Integer> atomIndices = orbit.getAtomIndices();
         
         // to make things easier, create a complete permutation of the vertices
         // which will map non-orbit atoms to themselves
-        int[] fullPermutation = new int[atomContainer.getAtomCount()];
+        int[] fullPermutation = new int[graph.getAtomCount()];
         for (int i = 0; i < fullPermutation.length; i++) {
             fullPermutation[i] = i;
         }
@@ -130,15 +147,13 @@ public class CanonicalChecker {
                 int k = atomIndices.get(permutation[j]);
                 fullPermutation[atomIndices.get(j)] = k;
             }
-            String permutedString = 
-                CanonicalChecker.asString(atomContainer, fullPermutation);
-            int compareValue = initialString.compareTo(permutedString);
+            int[] permuted = 
+                CanonicalChecker.certificate(graph, fullPermutation);
+            int compareValue = CanonicalChecker.compare(initial, permuted);
             boolean initialIsLarger = compareValue <= 0;
-//            System.out.println(permutedString + " " + java.util.Arrays.toString(fullPermutation) + " " + initialIsLarger + " " + compareValue);
             if (initialIsLarger) {
                 continue;
             } else {
-//                System.out.println("Failed " + permutedString + " " + java.util.Arrays.toString(fullPermutation) + " " + initialIsLarger);
                 return false;
             }
         }
@@ -146,44 +161,46 @@ public class CanonicalChecker {
     }
     
     /**
-     * Convert the atom container into a certificate - that is, a string that 
-     * can be compared lexicographically with strings from permuted copies.
+     * Convert the graph into a certificate - that is, a list of numbers that 
+     * can be compared lexicographically with the lists from permuted copies.
      * 
-     * @param container
+     * @param graph
      * @return
      */
-    private static String asString(IAtomContainer container) {
-        int n = container.getAtomCount();
+    private static int[] certificate(IAtomGraph graph) {
+        int n = graph.getAtomCount();
         int[] identity = new int[n];
         for (int i = 0; i < n; i++) { identity[i] = i; }
-        return CanonicalChecker.asString(container, identity);
+        return CanonicalChecker.certificate(graph, identity);
     }
     
     /**
-     * Produce a certificate under the given permutation.
+     * Produce a certificate under the given permutation : the lower atom,
+     * higher atom and order of each bond, in the order of the bonds. The atom
+     * numbers are compared as numbers, so that 10 comes after 9, as it would
+     * not in a string.
      * 
-     * @param container the atom container to make the certificate for
-     * @param permutation the permutation to alter the container with
-     * @return a string 'certificate' that can be checked for minimality
+     * @param graph the graph to make the certificate for
+     * @param permutation the permutation to alter the graph with
+     * @return a 'certificate' that can be checked for minimality
      */
-    private static String asString(IAtomContainer container, int[] permutation){
-        ArrayList<String> bondStrings = new ArrayList<String>();
-        for (IBond bond : container.bonds()) {
-            int a1 = permutation[container.getAtomNumber(bond.getAtom(0))];
-            int a2 = permutation[container.getAtomNumber(bond.getAtom(1))];
-//            IBond permutedBond  = 
-//                container.getBond(container.getAtom(a1), container.getAtom(a2));
-//            int o = permutedBond.getOrder().ordinal() + 1;
-            int o = bond.getOrder().ordinal() + 1;
-            String order = "(" + o + ")";
-            if (a1 < a2) {
-                bondStrings.add(a1 + "-" + a2 + order);
-            } else {
-                bondStrings.add(a2 + "-" + a1 + order);
-            }
+    private static int[] certificate(IAtomGraph graph, int[] permutation){
+        int[] certificate = new int[3 * graph.getBondCount()];
+        for (int i = 0; i < graph.getBondCount(); i++) {
+            int a1 = permutation[graph.getBondAtom(i, 0)];
+            int a2 = permutation[graph.getBondAtom(i, 1)];
+            certificate[3 * i] = Math.min(a1, a2);
+            certificate[3 * i + 1] = Math.max(a1, a2);
+            certificate[3 * i + 2] = graph.getBondOrder(i);
+        }
+        return certificate;
+    }
+    
+    private static int compare(int[] a, int[] b) {
+        for (int i = 0; i < a.length && i < b.length; i++) {
+            if (a[i] != b[i]) return a[i] < b[i] ? -1 : 1;
         }
-//        Collections.sort(bondStrings);
-        return bondStrings.toString();
+        return a.length - b.length;
     }
 
 }
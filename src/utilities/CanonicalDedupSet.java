@@ -0,0 +1,526 @@
+package utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A set of canonical forms (such as canonical signature strings) that only
+ * stores a 128-bit hash of each one, in two primitive arrays with open
+ * addressing. This is 16 bytes an entry, compared to a string and a map entry
+ * for a HashMap.
+ *
+ * When the table holds more than the memory budget, it is sorted and written
+ * to a temporary file as a run, and emptied. Each run keeps a Bloom filter
+ * and a fence index (every 128th hash) in memory - about a byte for each hash
+ * on disk - so a new hash is almost never looked for on disk, and a probe
+ * reads a single block. Once there are more than a few runs, they are merged
+ * into one, so the number of probes and of open files stays small. The set
+ * can grow far beyond memory, at the cost of some disk reads once it has
+ * spilled.
+ *
+ * Two different forms could have the same hash, which would wrongly make the
+ * second look like a duplicate. For 128 bits this is vanishingly unlikely, but
+ * for checking, the set can also keep the forms themselves, and count any
+ * collisions. The forms are only ever held in memory, so this exact check is
+ * not bounded by the memory budget, and is meant for tests and small runs.
+ *
+ * This class is not thread-safe.
+ *
+ * @author maclean
+ *
+ */
+public class CanonicalDedupSet {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The number of runs on disk above which they are merged into one
+     */
+    private static final int MAX_RUNS = 8;
+
+    /**
+     * The number of hashes in a block of a run; the first hash of each block
+     * is kept in memory, as the fence index
+     */
+    private static final int FENCE_INTERVAL = 128;
+
+    private static final int BLOOM_BITS_PER_ENTRY = 8;
+
+    private static final int BLOOM_HASHES = 5;
+
+    /**
+     * The bytes for a hash on disk
+     */
+    private static final int ENTRY_BYTES = 16;
+
+    /**
+     * The high and low halves of the hashes - a slot is empty when both are 0
+     */
+    private long[] high;
+
+    private long[] low;
+
+    /**
+     * The number of hashes in the table
+     */
+    private int count;
+
+    /**
+     * The number of hashes held in memory before the table is spilled
+     */
+    private int maxEntries;
+
+    private File spillDirectory;
+
+    /**
+     * The sorted runs on disk, no more than MAX_RUNS of them
+     */
+    private List<Run> runs;
+
+    private long size;
+
+    /**
+     * The exact forms, if they are being checked
+     */
+    private Set<String> exact;
+
+    private long collisions;
+
+    private MessageDigest digest;
+
+    /**
+     * Make a set that never spills to disk.
+     */
+    public CanonicalDedupSet() {
+        this(Integer.MAX_VALUE, null, false);
+    }
+
+    /**
+     * Make a set with a memory budget.
+     *
+     * @param maxEntries the number of hashes to hold before spilling
+     * @param spillDirectory the directory for the runs, or null for the
+     *        default temporary directory
+     * @param exactCheck if true, also keep the forms, to detect collisions;
+     *        they are kept in memory, whatever the budget
+     */
+    public CanonicalDedupSet(
+            int maxEntries, File spillDirectory, boolean exactCheck) {
+        this.maxEntries = maxEntries;
+        this.spillDirectory = spillDirectory;
+        this.high = new long[INITIAL_CAPACITY];
+        this.low = new long[INITIAL_CAPACITY];
+        this.runs = new ArrayList<Run>();
+        if (exactCheck) {
+            this.exact = new HashSet<String>();
+        }
+        try {
+            this.digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException nsae) {
+            // every Java platform has MD5
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /**
+     * Add a canonical form to the set.
+     *
+     * @param canonicalForm the canonical form
+     * @return true if the form was not already in the set
+     */
+    public boolean add(String canonicalForm) {
+        long[] hash = hash(canonicalForm);
+        boolean isNew = add(hash[0], hash[1]);
+        if (exact != null) {
+            boolean isExactlyNew = exact.add(canonicalForm);
+            if (isExactlyNew && !isNew) {
+                collisions++;
+                return true;
+            }
+        }
+        return isNew;
+    }
+
+    /**
+     * @return the number of different hashes in the set
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of runs written to disk
+     */
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * @return the number of hash collisions found, if checking
+     */
+    public long getCollisionCount() {
+        return collisions;
+    }
+
+    /**
+     * Delete the runs on disk. The set cannot be used after this.
+     */
+    public void close() {
+        for (Run run : runs) {
+            run.delete();
+        }
+        runs.clear();
+    }
+
+    private long[] hash(String canonicalForm) {
+        byte[] bytes;
+        try {
+            bytes = digest.digest(canonicalForm.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+        long h = 0;
+        long l = 0;
+        for (int i = 0; i < 8; i++) {
+            h = (h << 8) | (bytes[i] & 0xff);
+            l = (l << 8) | (bytes[i + 8] & 0xff);
+        }
+        if (h == 0 && l == 0) {
+            // (0, 0) marks an empty slot
+            l = 1;
+        }
+        return new long[] { h, l };
+    }
+
+    private boolean add(long h, long l) {
+        int slot = find(h, l);
+        if (high[slot] == h && low[slot] == l) {
+            return false;
+        }
+        for (Run run : runs) {
+            if (run.contains(h, l)) return false;
+        }
+        high[slot] = h;
+        low[slot] = l;
+        count++;
+        size++;
+        if (count >= maxEntries) {
+            spill();
+        } else if (2 * count > high.length) {
+            resize(2 * high.length);
+        }
+        return true;
+    }
+
+    /**
+     * @return the slot holding the hash, or the empty slot where it would go
+     */
+    private int find(long h, long l) {
+        int mask = high.length - 1;
+        int slot = (int) (l ^ (l >>> 32)) & mask;
+        while (high[slot] != 0 || low[slot] != 0) {
+            if (high[slot] == h && low[slot] == l) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        long[] oldHigh = high;
+        long[] oldLow = low;
+        high = new long[capacity];
+        low = new long[capacity];
+        for (int i = 0; i < oldHigh.length; i++) {
+            if (oldHigh[i] != 0 || oldLow[i] != 0) {
+                int slot = find(oldHigh[i], oldLow[i]);
+                high[slot] = oldHigh[i];
+                low[slot] = oldLow[i];
+            }
+        }
+    }
+
+    /**
+     * Sort the hashes in the table, write them to a new run, and empty the
+     * table. If that makes too many runs, merge them.
+     */
+    private void spill() {
+        long[][] entries = new long[count][];
+        int n = 0;
+        for (int i = 0; i < high.length; i++) {
+            if (high[i] != 0 || low[i] != 0) {
+                entries[n++] = new long[] { high[i], low[i] };
+            }
+        }
+        Arrays.sort(entries, new Comparator<long[]>() {
+            public int compare(long[] a, long[] b) {
+                return compareHash(a[0], a[1], b[0], b[1]);
+            }
+        });
+        try {
+            RunWriter writer = new RunWriter(spillDirectory, entries.length);
+            try {
+                for (long[] entry : entries) {
+                    writer.write(entry[0], entry[1]);
+                }
+            } finally {
+                writer.close();
+            }
+            runs.add(writer.open());
+            if (runs.size() > MAX_RUNS) {
+                merge();
+            }
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Could not spill dedup set", ioe);
+        }
+        high = new long[INITIAL_CAPACITY];
+        low = new long[INITIAL_CAPACITY];
+        count = 0;
+    }
+
+    /**
+     * Merge all the runs into one. No hash is in more than one run, as each
+     * is only added if no run has it.
+     */
+    private void merge() throws IOException {
+        long total = 0;
+        for (Run run : runs) {
+            total += run.length;
+        }
+        int k = runs.size();
+        DataInputStream[] inputs = new DataInputStream[k];
+        long[] remaining = new long[k];
+        long[] headHigh = new long[k];
+        long[] headLow = new long[k];
+        RunWriter writer = new RunWriter(spillDirectory, total);
+        try {
+            for (int i = 0; i < k; i++) {
+                Run run = runs.get(i);
+                inputs[i] = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(run.file)));
+                remaining[i] = run.length;
+                if (remaining[i] > 0) {
+                    headHigh[i] = inputs[i].readLong();
+                    headLow[i] = inputs[i].readLong();
+                }
+            }
+            while (true) {
+                int least = -1;
+                for (int i = 0; i < k; i++) {
+                    if (remaining[i] == 0) continue;
+                    if (least == -1 || compareHash(headHigh[i], headLow[i], 
+                            headHigh[least], headLow[least]) < 0) {
+                        least = i;
+                    }
+                }
+                if (least == -1) break;
+                writer.write(headHigh[least], headLow[least]);
+                remaining[least]--;
+                if (remaining[least] > 0) {
+                    headHigh[least] = inputs[least].readLong();
+                    headLow[least] = inputs[least].readLong();
+                }
+            }
+        } finally {
+            writer.close();
+            for (DataInputStream input : inputs) {
+                if (input != null) input.close();
+            }
+        }
+        for (Run run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        runs.add(writer.open());
+    }
+
+    /**
+     * The bit of the Bloom filter for the i'th hash function. The two halves
+     * of the MD5 hash are already independent and uniform, so they are
+     * combined by double hashing rather than hashed again.
+     */
+    private static long bloomBit(long h, long l, int i, long mask) {
+        return (l + i * (h | 1)) & mask;
+    }
+
+    /**
+     * Writes sorted hashes to a new run file, building its Bloom filter and
+     * fence index as it goes.
+     */
+    private static class RunWriter {
+
+        private final File file;
+
+        private final DataOutputStream out;
+
+        private final long[] bloom;
+
+        private final long bloomMask;
+
+        private final long[] fenceHigh;
+
+        private final long[] fenceLow;
+
+        private long length;
+
+        public RunWriter(File directory, long expected) throws IOException {
+            this.file = File.createTempFile("dedup", ".run", directory);
+            this.file.deleteOnExit();
+            this.out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)));
+            long bits = 64;
+            while (bits < expected * BLOOM_BITS_PER_ENTRY) {
+                bits *= 2;
+            }
+            this.bloom = new long[(int) (bits / 64)];
+            this.bloomMask = bits - 1;
+            int fences = (int) ((expected + FENCE_INTERVAL - 1) / FENCE_INTERVAL);
+            this.fenceHigh = new long[fences];
+            this.fenceLow = new long[fences];
+        }
+
+        public void write(long h, long l) throws IOException {
+            if (length % FENCE_INTERVAL == 0) {
+                int fence = (int) (length / FENCE_INTERVAL);
+                fenceHigh[fence] = h;
+                fenceLow[fence] = l;
+            }
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                long bit = bloomBit(h, l, i, bloomMask);
+                bloom[(int) (bit >>> 6)] |= 1L << bit;
+            }
+            out.writeLong(h);
+            out.writeLong(l);
+            length++;
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+
+        /**
+         * @return the finished run, open for reading
+         */
+        public Run open() throws IOException {
+            return new Run(file, length, bloom, bloomMask, fenceHigh, fenceLow);
+        }
+    }
+
+    /**
+     * A sorted run of hashes on disk, with its Bloom filter and fence index.
+     */
+    private static class Run {
+
+        private final File file;
+
+        private final RandomAccessFile access;
+
+        private final long length;
+
+        private final long[] bloom;
+
+        private final long bloomMask;
+
+        private final long[] fenceHigh;
+
+        private final long[] fenceLow;
+
+        private final ByteBuffer block;
+
+        public Run(File file, long length, long[] bloom, long bloomMask, 
+                long[] fenceHigh, long[] fenceLow) throws IOException {
+            this.file = file;
+            this.access = new RandomAccessFile(file, "r");
+            this.length = length;
+            this.bloom = bloom;
+            this.bloomMask = bloomMask;
+            this.fenceHigh = fenceHigh;
+            this.fenceLow = fenceLow;
+            this.block = ByteBuffer.allocate(FENCE_INTERVAL * ENTRY_BYTES);
+        }
+
+        public boolean contains(long h, long l) {
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                long bit = bloomBit(h, l, i, bloomMask);
+                if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+
+            // find the last block that starts at or before the hash
+            int blockIndex = -1;
+            int lowIndex = 0;
+            int highIndex = fenceHigh.length - 1;
+            while (lowIndex <= highIndex) {
+                int middle = (lowIndex + highIndex) >>> 1;
+                if (compareHash(fenceHigh[middle], fenceLow[middle], h, l) <= 0) {
+                    blockIndex = middle;
+                    lowIndex = middle + 1;
+                } else {
+                    highIndex = middle - 1;
+                }
+            }
+            if (blockIndex == -1) return false;
+
+            long start = (long) blockIndex * FENCE_INTERVAL;
+            int n = (int) Math.min(FENCE_INTERVAL, length - start);
+            try {
+                access.seek(start * ENTRY_BYTES);
+                access.readFully(block.array(), 0, n * ENTRY_BYTES);
+            } catch (IOException ioe) {
+                throw new IllegalStateException("Could not read dedup run", ioe);
+            }
+            lowIndex = 0;
+            highIndex = n - 1;
+            while (lowIndex <= highIndex) {
+                int middle = (lowIndex + highIndex) >>> 1;
+                long mh = block.getLong(middle * ENTRY_BYTES);
+                long ml = block.getLong(middle * ENTRY_BYTES + 8);
+                int c = compareHash(mh, ml, h, l);
+                if (c < 0) {
+                    lowIndex = middle + 1;
+                } else if (c > 0) {
+                    highIndex = middle - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Close the file and delete it.
+         */
+        public void delete() {
+            try {
+                access.close();
+            } catch (IOException ioe) {
+                // delete it anyway
+            }
+            file.delete();
+        }
+    }
+
+    private static int compareHash(long h1, long l1, long h2, long l2) {
+        if (h1 != h2) return h1 < h2 ? -1 : 1;
+        if (l1 != l2) return l1 < l2 ? -1 : 1;
+        return 0;
+    }
+
+}
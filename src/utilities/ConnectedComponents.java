@@ -0,0 +1,237 @@
+package utilities;
+
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+
+import signature.Util;
+
+/**
+ * Keeps track of the connected components of a graph as bonds are added,
+ * using a union-find structure. Each component also has a count of its
+ * unsaturated atoms, so that both "is the graph connected?" and "has this
+ * component become a saturated subgraph?" can be answered without a search.
+ *
+ * Unions are done by size and without path compression, so that the most
+ * recent union can be undone; this lets the backtracking search unbond atoms
+ * in the reverse order that it bonded them. Nothing is marked on the atoms
+ * themselves, so separate instances can be used from different threads.
+ *
+ * @author maclean
+ *
+ */
+public class ConnectedComponents {
+
+    /**
+     * The parent of each atom in the union-find forest - roots are their own
+     * parent
+     */
+    private int[] parent;
+
+    /**
+     * For a root atom, the number of atoms in its component
+     */
+    private int[] size;
+
+    /**
+     * For a root atom, the number of unsaturated atoms in its component
+     */
+    private int[] unsaturatedCount;
+
+    private boolean[] saturated;
+
+    /**
+     * For each call to union, the root that was attached to another root, or
+     * -1 if the atoms were already in the same component
+     */
+    private int[] merges;
+
+    private int mergeCount;
+
+    private int componentCount;
+
+    /**
+     * Make a tracker for a graph with no bonds, where every atom is its own
+     * component and every atom is unsaturated.
+     *
+     * @param atomCount the number of atoms in the graph
+     */
+    public ConnectedComponents(int atomCount) {
+        this.parent = new int[atomCount];
+        this.size = new int[atomCount];
+        this.unsaturatedCount = new int[atomCount];
+        this.saturated = new boolean[atomCount];
+        this.merges = new int[atomCount];
+        this.mergeCount = 0;
+        this.componentCount = atomCount;
+        for (int i = 0; i < atomCount; i++) {
+            this.parent[i] = i;
+            this.size[i] = 1;
+            this.unsaturatedCount[i] = 1;
+        }
+    }
+
+    /**
+     * Copy constructor
+     *
+     * @param other the tracker to copy
+     */
+    public ConnectedComponents(ConnectedComponents other) {
+        this.parent = other.parent.clone();
+        this.size = other.size.clone();
+        this.unsaturatedCount = other.unsaturatedCount.clone();
+        this.saturated = other.saturated.clone();
+        this.merges = other.merges.clone();
+        this.mergeCount = other.mergeCount;
+        this.componentCount = other.componentCount;
+    }
+
+    /**
+     * Make a tracker for the current bonds of an atom container, using
+     * {@link Util#isSaturated} for the saturation of each atom.
+     *
+     * @param container the atom container
+     * @return a tracker for the container
+     */
+    public static ConnectedComponents forContainer(IAtomContainer container) {
+        int atomCount = container.getAtomCount();
+        ConnectedComponents components = new ConnectedComponents(atomCount);
+        for (IBond bond : container.bonds()) {
+            components.union(container.getAtomNumber(bond.getAtom(0)),
+                             container.getAtomNumber(bond.getAtom(1)));
+        }
+        for (int i = 0; i < atomCount; i++) {
+            try {
+                components.setSaturated(
+                        i, Util.isSaturated(container.getAtom(i), container));
+            } catch (CDKException c) {
+                c.printStackTrace();
+            }
+        }
+        return components;
+    }
+
+    /**
+     * Find the root atom of the component containing an atom.
+     *
+     * @param atomNumber the atom
+     * @return the root, which is the same for all atoms in the component
+     */
+    public int find(int atomNumber) {
+        int root = atomNumber;
+        while (parent[root] != root) {
+            root = parent[root];
+        }
+        return root;
+    }
+
+    /**
+     * Join the components of two atoms, after a bond was made between them.
+     * Every call to this should be matched by a call to {@link #undo()} if
+     * the bond is later removed.
+     *
+     * @param x one atom of the new bond
+     * @param y the other atom of the new bond
+     * @return true if two different components were joined
+     */
+    public boolean union(int x, int y) {
+        int rootX = find(x);
+        int rootY = find(y);
+        if (mergeCount == merges.length) {
+            int[] larger = new int[2 * merges.length + 1];
+            System.arraycopy(merges, 0, larger, 0, mergeCount);
+            merges = larger;
+        }
+        if (rootX == rootY) {
+            merges[mergeCount++] = -1;
+            return false;
+        }
+        if (size[rootX] < size[rootY]) {
+            int tmp = rootX;
+            rootX = rootY;
+            rootY = tmp;
+        }
+        parent[rootY] = rootX;
+        size[rootX] += size[rootY];
+        unsaturatedCount[rootX] += unsaturatedCount[rootY];
+        merges[mergeCount++] = rootY;
+        componentCount--;
+        return true;
+    }
+
+    /**
+     * Undo the most recent union. The saturation of the atoms must be back
+     * to what it was at the time of that union, which it will be when bonds
+     * are removed in the reverse order to the one they were made.
+     */
+    public void undo() {
+        if (mergeCount == 0) return;
+        int rootY = merges[--mergeCount];
+        if (rootY == -1) return;
+        int rootX = parent[rootY];
+        parent[rootY] = rootY;
+        size[rootX] -= size[rootY];
+        unsaturatedCount[rootX] -= unsaturatedCount[rootY];
+        componentCount++;
+    }
+
+    /**
+     * Record a change in the saturation of an atom.
+     *
+     * @param atomNumber the atom
+     * @param isSaturated true if the atom is now saturated
+     */
+    public void setSaturated(int atomNumber, boolean isSaturated) {
+        if (saturated[atomNumber] == isSaturated) return;
+        saturated[atomNumber] = isSaturated;
+        if (isSaturated) {
+            unsaturatedCount[find(atomNumber)]--;
+        } else {
+            unsaturatedCount[find(atomNumber)]++;
+        }
+    }
+
+    /**
+     * @param atomNumber an atom
+     * @return the number of atoms in the component of this atom
+     */
+    public int getComponentSize(int atomNumber) {
+        return size[find(atomNumber)];
+    }
+
+    /**
+     * @return the number of separate components
+     */
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    /**
+     * @return true if all the atoms are in one component
+     */
+    public boolean isConnected() {
+        return componentCount <= 1;
+    }
+
+    /**
+     * @param atomNumber an atom
+     * @return true if every atom in the component of this atom is saturated
+     */
+    public boolean isSaturatedComponent(int atomNumber) {
+        return unsaturatedCount[find(atomNumber)] == 0;
+    }
+
+    /**
+     * Check for a saturated subgraph in the component that contains the atom
+     * x. A component that covers the whole graph is a solution, not a
+     * saturated subgraph.
+     *
+     * @param x an atom index
+     * @return true if the component of x is saturated but not the whole graph
+     */
+    public boolean isSaturatedSubgraph(int x) {
+        int root = find(x);
+        return unsaturatedCount[root] == 0 && size[root] < parent.length;
+    }
+
+}
@@ -0,0 +1,208 @@
+package utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits, cancellation and progress reporting for an enumeration. The
+ * enumerators ask it before expanding each node and before handing out each
+ * solution, and stop searching - returning normally, with the results found
+ * so far - once it says so. For example, to find at most 1000 structures in
+ * at most a minute :
+ * <pre>
+ * EnumerationControl control = new EnumerationControl();
+ * control.setResultLimit(1000);
+ * control.setTimeLimit(60 * 1000);
+ * enumerator.setControl(control);
+ * enumerator.generateToHandler();
+ * if (control.isStopped()) {
+ *     // control.getStopReason() says why
+ * }
+ * </pre>
+ * Another thread can call {@link #cancel()} at any time; the search notices
+ * at the next node. A limit of -1 means no limit.
+ *
+ * A control can be used from several search threads at once, but only for
+ * one enumeration at a time; {@link #start()} resets it for the next.
+ *
+ * @author maclean
+ *
+ */
+public class EnumerationControl {
+
+    public enum StopReason { NONE, CANCELLED, TIME_LIMIT, NODE_LIMIT, RESULT_LIMIT }
+
+    private long timeLimit = -1;
+
+    private long nodeLimit = -1;
+
+    private long resultLimit = -1;
+
+    private ProgressListener progressListener;
+
+    private long progressInterval;
+
+    private volatile StopReason stopReason = StopReason.NONE;
+
+    private AtomicLong nodes = new AtomicLong();
+
+    private AtomicLong results = new AtomicLong();
+
+    private long startTime = System.currentTimeMillis();
+
+    private AtomicLong nextProgressTime = new AtomicLong(Long.MAX_VALUE);
+
+    /**
+     * @param timeLimit the most time to search for, in milliseconds
+     */
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * @param nodeLimit the most search nodes to expand
+     */
+    public void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = nodeLimit;
+    }
+
+    /**
+     * @param resultLimit the most solutions to hand out
+     */
+    public void setResultLimit(long resultLimit) {
+        this.resultLimit = resultLimit;
+    }
+
+    /**
+     * Report the progress to a listener every <code>interval</code>
+     * milliseconds, while the search is running.
+     *
+     * @param listener the listener, or null for none
+     * @param interval the time between reports, in milliseconds
+     */
+    public void setProgressListener(ProgressListener listener, long interval) {
+        this.progressListener = listener;
+        this.progressInterval = interval;
+    }
+
+    /**
+     * Reset the counts and the clock. The enumerators call this when they
+     * start a search.
+     */
+    public void start() {
+        this.nodes.set(0);
+        this.results.set(0);
+        this.stopReason = StopReason.NONE;
+        this.startTime = System.currentTimeMillis();
+        if (this.progressListener != null) {
+            this.nextProgressTime.set(this.startTime + this.progressInterval);
+        } else {
+            this.nextProgressTime.set(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Ask the search to stop, from any thread.
+     */
+    public void cancel() {
+        stop(StopReason.CANCELLED);
+    }
+
+    public boolean isCancelled() {
+        return this.stopReason == StopReason.CANCELLED;
+    }
+
+    /**
+     * @return true if the search has been cancelled or has reached a limit
+     */
+    public boolean isStopped() {
+        return this.stopReason != StopReason.NONE;
+    }
+
+    /**
+     * @return why the search stopped, or NONE if it has not
+     */
+    public StopReason getStopReason() {
+        return this.stopReason;
+    }
+
+    public long getNodeCount() {
+        return this.nodes.get();
+    }
+
+    public long getResultCount() {
+        return this.results.get();
+    }
+
+    /**
+     * @return the time since the search started, in milliseconds
+     */
+    public long getElapsedTime() {
+        return System.currentTimeMillis() - this.startTime;
+    }
+
+    /**
+     * Count a node that is about to be expanded, and check the node and time
+     * limits.
+     *
+     * @return false if the search should stop instead of expanding the node
+     */
+    public boolean nodeExpanded() {
+        if (isStopped()) return false;
+        long n = this.nodes.incrementAndGet();
+        if (this.nodeLimit >= 0 && n > this.nodeLimit) {
+            stop(StopReason.NODE_LIMIT);
+            return false;
+        }
+        if (this.timeLimit >= 0 || this.progressListener != null) {
+            long now = System.currentTimeMillis();
+            if (this.timeLimit >= 0 && now - this.startTime >= this.timeLimit) {
+                stop(StopReason.TIME_LIMIT);
+                return false;
+            }
+            reportProgressIfDue(now);
+        }
+        return true;
+    }
+
+    /**
+     * Count a solution that is about to be handed out, unless the result
+     * limit has already been reached. Reaching the limit stops the search.
+     *
+     * @return false if the solution should not be handed out
+     */
+    public boolean acceptResult() {
+        if (this.stopReason == StopReason.CANCELLED) return false;
+        while (true) {
+            long n = this.results.get();
+            if (this.resultLimit >= 0 && n >= this.resultLimit) {
+                stop(StopReason.RESULT_LIMIT);
+                return false;
+            }
+            if (this.results.compareAndSet(n, n + 1)) {
+                if (this.resultLimit >= 0 && n + 1 == this.resultLimit) {
+                    stop(StopReason.RESULT_LIMIT);
+                }
+                return true;
+            }
+        }
+    }
+
+    private void reportProgressIfDue(long now) {
+        long due = this.nextProgressTime.get();
+        if (now < due) return;
+
+        // only the thread that moves the time on makes the report
+        if (this.nextProgressTime.compareAndSet(
+                due, now + this.progressInterval)) {
+            this.progressListener.progress(
+                    this.nodes.get(), this.results.get(), now - this.startTime);
+        }
+    }
+
+    private synchronized void stop(StopReason reason) {
+        if (this.stopReason == StopReason.NONE) {
+            this.stopReason = reason;
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A tracer that just counts the events of an enumeration. The counts can be
+ * read at any time - including while the enumeration is running on another
+ * thread - and are safe to update from a parallel search.
+ * 
+ * @author maclean
+ *
+ */
+public class EnumerationStats implements EnumerationTracer {
+    
+    private AtomicLong nodesExpanded = new AtomicLong();
+    
+    private AtomicLong bondsTried = new AtomicLong();
+    
+    private AtomicLong signatureRejections = new AtomicLong();
+    
+    private AtomicLong saturatedSubgraphRejections = new AtomicLong();
+    
+    private AtomicLong boundRejections = new AtomicLong();
+    
+    private AtomicLong canonicityRejections = new AtomicLong();
+    
+    private AtomicLong solutions = new AtomicLong();
+
+    public void nodeExpanded(Object graph, int x) {
+        nodesExpanded.incrementAndGet();
+    }
+
+    public void bondTried(Object graph, int x, int y) {
+        bondsTried.incrementAndGet();
+    }
+
+    public void signatureRejected(Object graph, int x, int y) {
+        signatureRejections.incrementAndGet();
+    }
+
+    public void saturatedSubgraphRejected(Object graph, int x, int y) {
+        saturatedSubgraphRejections.incrementAndGet();
+    }
+
+    public void boundRejected(Object graph, int x, int y) {
+        boundRejections.incrementAndGet();
+    }
+
+    public void canonicityRejected(Object graph, int x, int y) {
+        canonicityRejections.incrementAndGet();
+    }
+
+    public void solutionFound(Object graph) {
+        solutions.incrementAndGet();
+    }
+    
+    public long getNodesExpanded() {
+        return nodesExpanded.get();
+    }
+    
+    public long getBondsTried() {
+        return bondsTried.get();
+    }
+    
+    public long getSignatureRejections() {
+        return signatureRejections.get();
+    }
+    
+    public long getSaturatedSubgraphRejections() {
+        return saturatedSubgraphRejections.get();
+    }
+    
+    public long getBoundRejections() {
+        return boundRejections.get();
+    }
+    
+    public long getCanonicityRejections() {
+        return canonicityRejections.get();
+    }
+    
+    public long getSolutions() {
+        return solutions.get();
+    }
+    
+    public String toString() {
+        return String.format(
+                "nodes %d bonds %d signature %d subgraph %d bound %d canon %d "
+                + "solutions %d",
+                getNodesExpanded(), getBondsTried(), getSignatureRejections(),
+                getSaturatedSubgraphRejections(), getBoundRejections(), 
+                getCanonicityRejections(),
+                getSolutions());
+    }
+
+}
@@ -0,0 +1,64 @@
+package utilities;
+
+/**
+ * Receives the events of a structure enumeration, for debugging or profiling.
+ * The enumerators only call a tracer when one has been set, so there is no 
+ * cost - not even building a message string - when tracing is off. The graph
+ * arguments are passed as they are (a SimpleGraph or a signature Graph), and 
+ * should only be converted to strings by a tracer that needs to.
+ * 
+ * In a parallel search the methods may be called from several threads.
+ * 
+ * @author maclean
+ *
+ */
+public interface EnumerationTracer {
+    
+    /**
+     * A search node is being expanded; that is, the enumerator is about to try
+     * all the partners for atom x.
+     * 
+     * @param graph the graph at this node
+     * @param x the atom being saturated
+     */
+    public void nodeExpanded(Object graph, int x);
+    
+    /**
+     * A bond between x and y has been made, and is about to be checked.
+     * 
+     * @param graph the graph, with the bond made
+     * @param x the atom being saturated
+     * @param y the partner atom
+     */
+    public void bondTried(Object graph, int x, int y);
+    
+    /**
+     * The bond x-y was rejected because it is not compatible with the target
+     * signature.
+     */
+    public void signatureRejected(Object graph, int x, int y);
+    
+    /**
+     * The bond x-y was rejected because it made a saturated subgraph.
+     */
+    public void saturatedSubgraphRejected(Object graph, int x, int y);
+    
+    /**
+     * The bond x-y was rejected because the remaining valences can no longer
+     * make a connected, saturated structure.
+     */
+    public void boundRejected(Object graph, int x, int y);
+    
+    /**
+     * The bond x-y was rejected because the graph was not canonical.
+     */
+    public void canonicityRejected(Object graph, int x, int y);
+    
+    /**
+     * A complete structure has been found.
+     * 
+     * @param graph the solution graph
+     */
+    public void solutionFound(Object graph);
+
+}
@@ -0,0 +1,52 @@
+package utilities;
+
+import java.io.PrintStream;
+
+/**
+ * A tracer that prints every event, much like the debugging messages that the
+ * enumerators used to print. Only useful for small formulas.
+ * 
+ * @author maclean
+ *
+ */
+public class PrintingTracer implements EnumerationTracer {
+    
+    private PrintStream out;
+    
+    public PrintingTracer() {
+        this(System.out);
+    }
+    
+    public PrintingTracer(PrintStream out) {
+        this.out = out;
+    }
+
+    public void nodeExpanded(Object graph, int x) {
+        out.println("saturating atom " + x + " in " + graph);
+    }
+
+    public void bondTried(Object graph, int x, int y) {
+        out.println("bonding " + x + " and " + y);
+    }
+
+    public void signatureRejected(Object graph, int x, int y) {
+        out.println("!signature " + x + " " + y);
+    }
+
+    public void saturatedSubgraphRejected(Object graph, int x, int y) {
+        out.println("saturated subgraphs");
+    }
+
+    public void boundRejected(Object graph, int x, int y) {
+        out.println("!bound " + x + " " + y);
+    }
+
+    public void canonicityRejected(Object graph, int x, int y) {
+        out.println("!canon");
+    }
+
+    public void solutionFound(Object graph) {
+        out.println("ADDING " + graph);
+    }
+
+}
@@ -0,0 +1,21 @@
+package utilities;
+
+/**
+ * Told how an enumeration is getting on, at the interval set in its
+ * {@link EnumerationControl}. In a parallel search this is called from
+ * whichever search thread notices that the interval has passed, so it should
+ * return quickly.
+ *
+ * @author maclean
+ *
+ */
+public interface ProgressListener {
+
+    /**
+     * @param nodes the number of search nodes expanded so far
+     * @param solutions the number of solutions accepted so far
+     * @param elapsed the time since the enumeration started, in milliseconds
+     */
+    public void progress(long nodes, long solutions, long elapsed);
+
+}
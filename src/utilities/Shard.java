@@ -0,0 +1,106 @@
+package utilities;
+
+import signature.IAtomGraph;
+
+/**
+ * One part of an enumeration that has been split between several processes.
+ * The search tree is cut at a fixed depth (counted in bonds added), and each
+ * subtree below the cut goes to the shard picked by a hash of the bonds on
+ * the path to it. As the search is deterministic, every shard sees the same
+ * tree above the cut and so agrees on the owner of each subtree, without
+ * any communication between them. Solutions found above the cut are shared
+ * out in the same way.
+ *
+ * @author maclean
+ *
+ */
+public class Shard {
+
+    private int index;
+
+    private int count;
+
+    private int depth;
+
+    /**
+     * Make a shard.
+     *
+     * @param index the number of this shard, from 0 to count - 1
+     * @param count the total number of shards
+     * @param depth the number of bonds at which the tree is cut
+     */
+    public Shard(int index, int count, int depth) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException(
+                    "Shard " + index + " of " + count + " does not exist");
+        }
+        this.index = index;
+        this.count = count;
+        this.depth = depth;
+    }
+
+    /**
+     * Read a shard from a string like "2/8", meaning the third of eight.
+     *
+     * @param spec the shard and the number of shards, separated by '/'
+     * @param depth the number of bonds at which the tree is cut
+     * @return the shard
+     */
+    public static Shard parse(String spec, int depth) {
+        int slash = spec.indexOf('/');
+        if (slash == -1) {
+            throw new IllegalArgumentException("Expected i/N, not " + spec);
+        }
+        try {
+            int index = Integer.parseInt(spec.substring(0, slash).trim());
+            int count = Integer.parseInt(spec.substring(slash + 1).trim());
+            return new Shard(index, count, depth);
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Expected i/N, not " + spec);
+        }
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Decide if the subtree below a graph belongs to this shard. The hash
+     * only uses the bonds in the order they were made, which is the same in
+     * every process.
+     *
+     * @param graph the graph at the end of a path
+     * @return true if this shard should search below the graph
+     */
+    public boolean owns(IAtomGraph graph) {
+        if (count == 1) return true;
+        int hash = 17;
+        for (int b = 0; b < graph.getBondCount(); b++) {
+            hash = 31 * hash + graph.getBondAtom(b, 0);
+            hash = 31 * hash + graph.getBondAtom(b, 1);
+            hash = 31 * hash + graph.getBondOrder(b);
+        }
+
+        // mix the bits, as paths that differ only in their last bond give
+        // hashes that differ only in their low bits
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return (hash & 0x7fffffff) % count == index;
+    }
+
+    public String toString() {
+        return index + "/" + count;
+    }
+
+}